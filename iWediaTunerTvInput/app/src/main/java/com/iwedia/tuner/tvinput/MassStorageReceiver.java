@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.RemoteException;
+
+import com.iwedia.tuner.tvinput.engine.DtvEngine;
+import com.iwedia.tuner.tvinput.engine.RouteManager;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+/**
+ * Receiver that updates record and playback routes when mass storage is mounted or unmounted
+ */
+public class MassStorageReceiver extends BroadcastReceiver {
+
+    /** Object used to write to logcat output */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + MassStorageReceiver.class.getSimpleName(), Logger.ERROR);
+
+    /**
+     * Creates filter for mass storage mount and unmount events
+     */
+    public static IntentFilter createIntentFilter() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+        filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+        filter.addDataScheme("file");
+        return filter;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        mLog.d("[onReceive][" + intent.getAction() + "][" + intent.getData() + "]");
+        DtvEngine dtvEngine = DtvEngine.getInstance();
+        if (dtvEngine == null || dtvEngine.getRouteManager() == null) {
+            return;
+        }
+        final RouteManager routeManager = dtvEngine.getRouteManager();
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    routeManager.refreshMassStorages();
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                } finally {
+                    result.finish();
+                }
+            }
+        }).start();
+    }
+}
@@ -0,0 +1,789 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.iwedia.dtv.scan.FecType;
+import com.iwedia.dtv.scan.IScanCallback;
+import com.iwedia.dtv.scan.Modulation;
+import com.iwedia.dtv.scan.Polarization;
+import com.iwedia.dtv.scan.ScanInstallStatus;
+import com.iwedia.dtv.service.SourceType;
+import com.iwedia.tuner.tvinput.engine.ChannelManager;
+import com.iwedia.tuner.tvinput.engine.DtvEngine;
+import com.iwedia.tuner.tvinput.engine.ScanJob;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Headless scan interface for automation, e.g. provisioning line or bench test against
+ * stand-in MW. Scan plan is sent by bound client through {@link Messenger}, or with
+ * {@link #ACTION_START_SCAN} intent when no progress is needed, service stops itself when scan
+ * started by intent ends. Plan is run through
+ * {@link ChannelManager} the same way setup activity runs it. Progress is streamed to client
+ * at most every {@link #PROGRESS_INTERVAL_MS}, and summary with throughput metrics is sent
+ * when scan finishes. Only one plan runs at a time.
+ * <p>
+ * Runs in TV input service process, TvInputService does not allow binding other interfaces,
+ * so this is separate service next to {@link TvService}. Setup activity should not scan at
+ * the same time.
+ * <p>
+ * Service is protected by signature|privileged SCAN permission, which shell does not hold, so
+ * it can not be started with adb. Provisioning and bench tools have to be privileged apps or
+ * be signed with the same key as this app.
+ */
+public class ScanService extends Service {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + ScanService.class.getSimpleName(), Logger.ERROR);
+
+    /**
+     * Intent action to run scan plan from intent extras, without progress reporting
+     */
+    public static final String ACTION_START_SCAN = "com.iwedia.tuner.tvinput.action.START_SCAN";
+    public static final String ACTION_STOP_SCAN = "com.iwedia.tuner.tvinput.action.STOP_SCAN";
+
+    /** Messages from client, plan is in message data */
+    public static final int MSG_START_SCAN = 1;
+    public static final int MSG_STOP_SCAN = 2;
+
+    /** Messages to client */
+    public static final int MSG_SCAN_STARTED = 100;
+    public static final int MSG_SCAN_PROGRESS = 101;
+    public static final int MSG_TRANSPONDER_FINISHED = 102;
+    public static final int MSG_SCAN_FINISHED = 103;
+    public static final int MSG_SCAN_ERROR = 104;
+
+    /**
+     * Source types to auto scan, as {@link SourceType} names. Plan without source types and
+     * transponders auto scans all frontends.
+     */
+    public static final String KEY_SOURCE_TYPES = "source_types";
+
+    /**
+     * Transponder list plan, arrays of equal length. Modulation, polarization and FEC are
+     * enum names and are needed only for source types that use them.
+     */
+    public static final String KEY_TYPES = "types";
+    public static final String KEY_FREQUENCIES = "frequencies";
+    public static final String KEY_SYMBOL_RATES = "symbol_rates";
+    public static final String KEY_MODULATIONS = "modulations";
+    public static final String KEY_POLARIZATIONS = "polarizations";
+    public static final String KEY_FECS = "fecs";
+
+    /**
+     * False to fully scan transponders that did not change since last scan
+     */
+    public static final String KEY_SKIP_UNCHANGED = "skip_unchanged";
+
+    /**
+     * True to add found services to existing channel list instead of rebuilding it, needed
+     * for unchanged transponders to be skipped
+     */
+    public static final String KEY_APPEND_LIST = "append_list";
+
+    /** Progress keys */
+    public static final String KEY_PROGRESS = "progress";
+    public static final String KEY_FREQUENCY = "frequency";
+    public static final String KEY_SERVICE_COUNT = "service_count";
+    public static final String KEY_SIGNAL_QUALITY = "signal_quality";
+    public static final String KEY_SIGNAL_STRENGTH = "signal_strength";
+    public static final String KEY_LOCKED = "locked";
+
+    /** Transponder result keys */
+    public static final String KEY_INDEX = "index";
+    public static final String KEY_LOCK_TIME = "lock_time";
+    public static final String KEY_SKIPPED = "skipped";
+    public static final String KEY_DURATION = "duration";
+
+    /** Summary keys */
+    public static final String KEY_COMPLETED = "completed";
+    public static final String KEY_WALL_TIME = "wall_time";
+    public static final String KEY_SERVICES_PER_SECOND = "services_per_second";
+    public static final String KEY_CHANNEL_COUNT = "channel_count";
+    public static final String KEY_LOCK_TIMES = "lock_times";
+    public static final String KEY_TRANSPONDER_SERVICE_COUNTS = "transponder_service_counts";
+    public static final String KEY_TRANSPONDERS_SKIPPED = "transponders_skipped";
+
+    public static final String KEY_ERROR = "error";
+
+    /**
+     * Minimum time in ms between two progress messages
+     */
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private HandlerThread mHandlerThread;
+
+    /**
+     * Handler of scan thread, all scan state below is accessed only on it
+     */
+    private Handler mHandler;
+    private Messenger mMessenger;
+
+    private boolean mScanRunning = false;
+
+    /**
+     * Start ID of last start command, service is stopped with it when no scan is running
+     */
+    private int mLastStartId = -1;
+    private Messenger mClient;
+    private DtvEngine mDtvEngine;
+    private int mScanCallbackId = -1;
+    private long mStartTime;
+    private volatile List<ScanJob.TransponderResult> mJobResults;
+    private volatile ScanJob mScanJob;
+
+    /**
+     * Time in ms to first lock by install route, for auto scans
+     */
+    private final HashMap<Integer, Long> mRouteLockTimes = new HashMap<Integer, Long>();
+
+    /** Progress updated on binder threads */
+    private final Object mProgressLock = new Object();
+    private int mProgress;
+    private int mFrequency;
+    private int mServiceCount;
+    private int mSignalQuality;
+    private int mSignalStrength;
+    private boolean mLocked;
+    private boolean mProgressPending = false;
+
+    @Override
+    public void onCreate() {
+        mLog.d("[onCreate]");
+        super.onCreate();
+        // Engine is normally created by TV input service, scan creates it if it is not there
+        startService(new Intent(getApplicationContext(), TvService.class));
+        mHandlerThread = new HandlerThread(ScanService.class.getSimpleName());
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper()) {
+
+            @Override
+            public void handleMessage(Message msg) {
+                // Start ID of start command, 0 for messages of bound client
+                if (msg.arg1 > 0) {
+                    mLastStartId = msg.arg1;
+                }
+                switch (msg.what) {
+                    case MSG_START_SCAN:
+                        startScan(msg.getData(), msg.replyTo);
+                        break;
+                    case MSG_STOP_SCAN:
+                        stopScan();
+                        break;
+                }
+                stopSelfIfIdle();
+            }
+        };
+        mMessenger = new Messenger(mHandler);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mMessenger.getBinder();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_START_SCAN.equals(intent.getAction())) {
+            Message msg = mHandler.obtainMessage(MSG_START_SCAN, startId, 0);
+            msg.setData(intent.getExtras() != null ? intent.getExtras() : new Bundle());
+            mHandler.sendMessage(msg);
+        } else if (intent != null && ACTION_STOP_SCAN.equals(intent.getAction())) {
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_STOP_SCAN, startId, 0));
+        } else {
+            stopSelf(startId);
+        }
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Stops service started by intent when no scan is running, bound clients keep it alive.
+     * Runs on scan thread.
+     */
+    private void stopSelfIfIdle() {
+        if (mScanRunning || mLastStartId < 0) {
+            return;
+        }
+        mLog.d("[stopSelfIfIdle][" + mLastStartId + "]");
+        // Newer start command that is not handled yet keeps service running
+        stopSelf(mLastStartId);
+        mLastStartId = -1;
+    }
+
+    @Override
+    public void onDestroy() {
+        mLog.d("[onDestroy]");
+        super.onDestroy();
+        mHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                stopScan();
+            }
+        });
+        mHandlerThread.quitSafely();
+    }
+
+    /**
+     * Starts scan plan. Runs on scan thread.
+     */
+    private void startScan(Bundle plan, Messenger client) {
+        mLog.d("[startScan][" + plan + "]");
+        if (mScanRunning) {
+            sendError(client, "scan is already running");
+            return;
+        }
+        List<ScanJob.Transponder> transponders;
+        List<SourceType> sourceTypes;
+        try {
+            transponders = parseTransponders(plan);
+            sourceTypes = parseSourceTypes(plan);
+        } catch (IllegalArgumentException e) {
+            sendError(client, "invalid scan plan: " + e.getMessage());
+            return;
+        }
+        mDtvEngine = DtvEngine.getInstance();
+        if (mDtvEngine == null) {
+            // Cold process, or engine was released while no session was open
+            mLog.i("[startScan][instantiating engine]");
+            // ! blocking call
+            DtvEngine.instantiate(getApplicationContext());
+            mDtvEngine = DtvEngine.getInstance();
+        }
+        if (mDtvEngine == null) {
+            sendError(client, "engine is not ready");
+            return;
+        }
+
+        // Keeps engine from being released by TV input service while no session is open
+        if (!mDtvEngine.addUser()) {
+            sendError(client, "engine is not ready");
+            return;
+        }
+        mClient = client;
+        mScanRunning = true;
+        mJobResults = null;
+        mScanJob = null;
+        mRouteLockTimes.clear();
+        synchronized (mProgressLock) {
+            mProgress = 0;
+            mFrequency = 0;
+            mServiceCount = 0;
+            mSignalQuality = 0;
+            mSignalStrength = 0;
+            mLocked = false;
+        }
+        mStartTime = SystemClock.elapsedRealtime();
+        ChannelManager channelManager = mDtvEngine.getChannelManager();
+        try {
+            mScanCallbackId = mDtvEngine.getDtvManager().getScanControl()
+                    .registerCallback(mScanCallback);
+            boolean started;
+            if (transponders != null) {
+                ScanJobListener listener = new ScanJobListener();
+                ScanJob job = new ScanJob(transponders, listener);
+                job.setSkipUnchanged(plan.getBoolean(KEY_SKIP_UNCHANGED, true));
+                job.setAppendList(plan.getBoolean(KEY_APPEND_LIST, false));
+                listener.mJob = job;
+                mScanJob = job;
+                // Job end is reported to job listener, also when nothing needed scanning
+                started = channelManager.startScanJob(job);
+            } else if (sourceTypes != null) {
+                started = false;
+                for (SourceType type : sourceTypes) {
+                    started |= channelManager.startAutoScan(null, type);
+                }
+            } else {
+                started = channelManager.startAutoScanAll();
+            }
+            if (!started) {
+                failScan("no scan could be started");
+                return;
+            }
+            // Scan callbacks and job results are handled on this thread after start returns
+            send(MSG_SCAN_STARTED, null);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            try {
+                // Scans started before MW error
+                channelManager.stopScan();
+            } catch (RemoteException e1) {
+                e1.printStackTrace();
+            }
+            failScan("MW error");
+        }
+    }
+
+    /**
+     * Parses source types to auto scan
+     *
+     * @return Source types, or null if plan has no source type list
+     * @throws IllegalArgumentException If source type is unknown
+     */
+    private static List<SourceType> parseSourceTypes(Bundle plan) {
+        String[] types = plan.getStringArray(KEY_SOURCE_TYPES);
+        if (types == null) {
+            return null;
+        }
+        List<SourceType> sourceTypes = new ArrayList<SourceType>();
+        for (String type : types) {
+            sourceTypes.add(SourceType.valueOf(type));
+        }
+        return sourceTypes;
+    }
+
+    /**
+     * Parses transponder list of plan
+     *
+     * @return Transponders, or null if plan has no transponder list
+     * @throws IllegalArgumentException If plan is malformed
+     */
+    private static List<ScanJob.Transponder> parseTransponders(Bundle plan) {
+        String[] types = plan.getStringArray(KEY_TYPES);
+        int[] frequencies = plan.getIntArray(KEY_FREQUENCIES);
+        if (types == null && frequencies == null) {
+            return null;
+        }
+        if (types == null || frequencies == null || types.length != frequencies.length) {
+            throw new IllegalArgumentException("types and frequencies do not match");
+        }
+        int[] symbolRates = plan.getIntArray(KEY_SYMBOL_RATES);
+        String[] modulations = plan.getStringArray(KEY_MODULATIONS);
+        String[] polarizations = plan.getStringArray(KEY_POLARIZATIONS);
+        String[] fecs = plan.getStringArray(KEY_FECS);
+        List<ScanJob.Transponder> transponders = new ArrayList<ScanJob.Transponder>();
+        for (int i = 0; i < types.length; i++) {
+            SourceType type = SourceType.valueOf(types[i]);
+            switch (type) {
+                case TER:
+                    transponders.add(ScanJob.Transponder.terrestrial(frequencies[i]));
+                    break;
+                case CAB:
+                    transponders.add(ScanJob.Transponder.cable(frequencies[i],
+                            Modulation.valueOf(get(modulations, i)), get(symbolRates, i)));
+                    break;
+                case SAT:
+                    transponders.add(ScanJob.Transponder.satellite(frequencies[i],
+                            Modulation.valueOf(get(modulations, i)),
+                            Polarization.valueOf(get(polarizations, i)), get(symbolRates, i),
+                            FecType.valueOf(get(fecs, i))));
+                    break;
+                default:
+                    throw new IllegalArgumentException("can not scan " + type);
+            }
+        }
+        return transponders;
+    }
+
+    private static String get(String[] values, int index) {
+        if (values == null || index >= values.length) {
+            throw new IllegalArgumentException("missing tuning parameter " + index);
+        }
+        return values[index];
+    }
+
+    private static int get(int[] values, int index) {
+        if (values == null || index >= values.length) {
+            throw new IllegalArgumentException("missing tuning parameter " + index);
+        }
+        return values[index];
+    }
+
+    /**
+     * Aborts running scan. Runs on scan thread.
+     */
+    private void stopScan() {
+        if (!mScanRunning) {
+            return;
+        }
+        mLog.d("[stopScan]");
+        try {
+            mDtvEngine.getChannelManager().stopScan();
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        finishScan(false);
+    }
+
+    /**
+     * Ends scan that could not be started, client gets only error and no summary. Runs on scan
+     * thread.
+     */
+    private void failScan(String error) {
+        Messenger client = mClient;
+        mScanRunning = false;
+        mScanJob = null;
+        unregisterScanCallback();
+        mHandler.removeCallbacks(mSendProgressRunnable);
+        mClient = null;
+        mDtvEngine.removeUser();
+        sendError(client, error);
+    }
+
+    private void unregisterScanCallback() {
+        try {
+            mDtvEngine.getDtvManager().getScanControl().unregisterCallback(mScanCallbackId);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Unregisters scan callback and sends summary. Runs on scan thread.
+     */
+    private void finishScan(boolean completed) {
+        if (!mScanRunning) {
+            return;
+        }
+        mScanRunning = false;
+        unregisterScanCallback();
+        mHandler.removeCallbacks(mSendProgressRunnable);
+        mSendProgressRunnable.run();
+
+        long wallTime = SystemClock.elapsedRealtime() - mStartTime;
+        int serviceCount;
+        synchronized (mProgressLock) {
+            serviceCount = mServiceCount;
+        }
+        Bundle summary = new Bundle();
+        summary.putBoolean(KEY_COMPLETED, completed);
+        summary.putLong(KEY_WALL_TIME, wallTime);
+        summary.putInt(KEY_SERVICE_COUNT, serviceCount);
+        summary.putFloat(KEY_SERVICES_PER_SECOND, wallTime == 0 ? 0
+                : serviceCount * 1000f / wallTime);
+        summary.putInt(KEY_CHANNEL_COUNT, mDtvEngine.getChannelManager()
+                .getAllDatabaseChannels().size());
+        if (mJobResults != null) {
+            long[] lockTimes = new long[mJobResults.size()];
+            int[] serviceCounts = new int[mJobResults.size()];
+            boolean[] skipped = new boolean[mJobResults.size()];
+            for (int i = 0; i < lockTimes.length; i++) {
+                lockTimes[i] = mJobResults.get(i).getLockTime();
+                serviceCounts[i] = mJobResults.get(i).getServiceCount();
+                skipped[i] = mJobResults.get(i).isSkipped();
+            }
+            summary.putLongArray(KEY_LOCK_TIMES, lockTimes);
+            summary.putIntArray(KEY_TRANSPONDER_SERVICE_COUNTS, serviceCounts);
+            summary.putBooleanArray(KEY_TRANSPONDERS_SKIPPED, skipped);
+        } else {
+            long[] lockTimes = new long[mRouteLockTimes.size()];
+            int i = 0;
+            for (Long lockTime : mRouteLockTimes.values()) {
+                lockTimes[i++] = lockTime;
+            }
+            summary.putLongArray(KEY_LOCK_TIMES, lockTimes);
+        }
+        mLog.i("[finishScan][completed: " + completed + "][services: " + serviceCount
+                + "][wall time: " + wallTime + " ms][services/s: "
+                + summary.getFloat(KEY_SERVICES_PER_SECOND) + "]");
+        send(MSG_SCAN_FINISHED, summary);
+        mClient = null;
+        mDtvEngine.removeUser();
+        stopSelfIfIdle();
+    }
+
+    private void send(int what, Bundle data) {
+        if (mClient == null) {
+            return;
+        }
+        Message msg = Message.obtain(null, what);
+        if (data != null) {
+            msg.setData(data);
+        }
+        try {
+            mClient.send(msg);
+        } catch (RemoteException e) {
+            // Client is gone, scan keeps running
+            mLog.w("[send][client is gone]");
+            mClient = null;
+        }
+    }
+
+    private void sendError(Messenger client, String error) {
+        mLog.e("[sendError][" + error + "]");
+        if (client == null) {
+            return;
+        }
+        Message msg = Message.obtain(null, MSG_SCAN_ERROR);
+        Bundle data = new Bundle();
+        data.putString(KEY_ERROR, error);
+        msg.setData(data);
+        try {
+            client.send(msg);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends progress collected since last progress message
+     */
+    private final Runnable mSendProgressRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            Bundle progress = new Bundle();
+            synchronized (mProgressLock) {
+                mProgressPending = false;
+                progress.putInt(KEY_PROGRESS, mProgress);
+                progress.putInt(KEY_FREQUENCY, mFrequency);
+                progress.putInt(KEY_SERVICE_COUNT, mServiceCount);
+                progress.putInt(KEY_SIGNAL_QUALITY, mSignalQuality);
+                progress.putInt(KEY_SIGNAL_STRENGTH, mSignalStrength);
+                progress.putBoolean(KEY_LOCKED, mLocked);
+            }
+            send(MSG_SCAN_PROGRESS, progress);
+        }
+    };
+
+    /**
+     * Schedules progress message unless one is already scheduled. Must be called with progress
+     * lock held.
+     */
+    private void scheduleProgress() {
+        if (mProgressPending) {
+            return;
+        }
+        mProgressPending = true;
+        mHandler.postDelayed(mSendProgressRunnable, PROGRESS_INTERVAL_MS);
+    }
+
+    private void serviceFound(int routeId, String name) {
+        mDtvEngine.getChannelManager().onServiceDiscovered(routeId);
+        if (name.contains(ChannelManager.IP_CHANNEL_NAME)
+                || name.contains(ChannelManager.DVB_CAB_VOD_CHANNEL_NAME)) {
+            return;
+        }
+        synchronized (mProgressLock) {
+            mServiceCount++;
+            scheduleProgress();
+        }
+    }
+
+    /**
+     * Listener of one scan job, results of job of previous scan are ignored
+     */
+    private class ScanJobListener implements ScanJob.IScanJobListener {
+        private ScanJob mJob;
+
+        @Override
+        public void onTransponderFinished(final int index, final ScanJob.TransponderResult result) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (mScanJob != mJob) {
+                        return;
+                    }
+                    Bundle data = new Bundle();
+                    data.putInt(KEY_INDEX, index);
+                    data.putInt(KEY_FREQUENCY, result.getTransponder().getFrequency());
+                    data.putLong(KEY_LOCK_TIME, result.getLockTime());
+                    data.putInt(KEY_SERVICE_COUNT, result.getServiceCount());
+                    data.putBoolean(KEY_SKIPPED, result.isSkipped());
+                    data.putLong(KEY_DURATION, result.getDuration());
+                    send(MSG_TRANSPONDER_FINISHED, data);
+                }
+            });
+        }
+
+        @Override
+        public void onJobFinished(final List<ScanJob.TransponderResult> results) {
+            // Called on scan job executor after channel list is updated, or on scan thread
+            // when scan is stopped
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (mScanJob != mJob) {
+                        return;
+                    }
+                    mJobResults = results;
+                    finishScan(results.size() == mJob.getTransponders().size());
+                }
+            });
+        }
+    }
+
+    private final IScanCallback mScanCallback = new IScanCallback.Stub() {
+
+        @Override
+        public void antennaConnected(int routeId, boolean state) {
+            mLog.d("[antennaConnected][routeId:" + routeId + "][connected: " + state + "]");
+        }
+
+        @Override
+        public void installServiceDATAName(int routeId, String name) {
+            serviceFound(routeId, name);
+        }
+
+        @Override
+        public void installServiceDATANumber(int routeId, int name) {
+        }
+
+        @Override
+        public void installServiceRADIOName(int routeId, String name) {
+            serviceFound(routeId, name);
+        }
+
+        @Override
+        public void installServiceRADIONumber(int routeId, int name) {
+        }
+
+        @Override
+        public void installServiceTVName(int routeId, String name) {
+            serviceFound(routeId, name);
+        }
+
+        @Override
+        public void installServiceTVNumber(int routeId, int name) {
+        }
+
+        @Override
+        public void installStatus(ScanInstallStatus scanStatus) {
+            mLog.d("[installStatus][" + scanStatus + "]");
+        }
+
+        @Override
+        public void networkChanged(int networkId) {
+            mLog.d("[networkChanged][network Id: " + networkId + "]");
+            mDtvEngine.getChannelManager().onNetworkChanged(networkId);
+        }
+
+        @Override
+        public void sat2ipServerDropped(int routeId) {
+            mLog.d("[sat2ipServerDropped][routeId:" + routeId + "]");
+        }
+
+        @Override
+        public void scanFinished(final int routeId) {
+            mLog.d("[scanFinished][routeId:" + routeId + "]");
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!mScanRunning) {
+                        return;
+                    }
+                    ChannelManager channelManager = mDtvEngine.getChannelManager();
+                    try {
+                        if (!channelManager.scanFinished(routeId)) {
+                            // Scans on other frontends or transponders are still running
+                            return;
+                        }
+                        channelManager.refreshChannelListAfterScan();
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                    finishScan(true);
+                }
+            });
+        }
+
+        @Override
+        public void scanNoServiceSpace(int routeId) {
+            mLog.d("[scanNoServiceSpace][routeId:" + routeId + "]");
+        }
+
+        @Override
+        public void scanProgressChanged(int routeId, int value) {
+            synchronized (mProgressLock) {
+                mProgress = value;
+                scheduleProgress();
+            }
+        }
+
+        @Override
+        public void scanTunFrequency(int routeId, int frequency) {
+            mDtvEngine.getChannelManager().onScanFrequency(routeId, frequency);
+            synchronized (mProgressLock) {
+                mFrequency = frequency;
+                scheduleProgress();
+            }
+        }
+
+        @Override
+        public void signalBer(int routeId, int ber) {
+        }
+
+        @Override
+        public void signalQuality(int routeId, int quality) {
+            mDtvEngine.getChannelManager().onSignalQuality(routeId, quality);
+            synchronized (mProgressLock) {
+                mSignalQuality = quality;
+                scheduleProgress();
+            }
+        }
+
+        @Override
+        public void signalStrength(int routeId, int strength) {
+            mDtvEngine.getChannelManager().onSignalStrength(routeId, strength);
+            synchronized (mProgressLock) {
+                mSignalStrength = strength;
+                scheduleProgress();
+            }
+        }
+
+        @Override
+        public void triggerStatus(int routeId) {
+            mLog.d("[triggerStatus][routeId:" + routeId + "]");
+        }
+
+        @Override
+        public void signalReturned() {
+            mLog.d("[signalReturned]");
+        }
+
+        @Override
+        public void signalLost() {
+            mLog.d("[signalLost]");
+        }
+
+        @Override
+        public void tunerLocked(final int routeId, final boolean locked) {
+            mDtvEngine.getChannelManager().onTunerLocked(routeId, locked);
+            synchronized (mProgressLock) {
+                mLocked = locked;
+                scheduleProgress();
+            }
+            if (!locked) {
+                return;
+            }
+            final long lockTime = SystemClock.elapsedRealtime() - mStartTime;
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!mRouteLockTimes.containsKey(routeId)) {
+                        mRouteLockTimes.put(routeId, lockTime);
+                    }
+                }
+            });
+        }
+    };
+}
@@ -15,11 +15,18 @@ import android.content.Context;
 import android.content.IntentFilter;
 import android.media.tv.TvInputManager;
 import android.media.tv.TvInputService;
+import android.os.Handler;
+import android.os.RemoteException;
 
 import com.iwedia.tuner.tvinput.TvSession.ITvSession;
+import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
 import com.iwedia.tuner.tvinput.engine.DtvEngine;
+import com.iwedia.tuner.tvinput.engine.DtvEngine.PlaybackType;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Main class for iWedia TV Input Service
  */
@@ -40,10 +47,42 @@ public class TvService extends TvInputService implements ITvSession {
     /**
      * List of all TVSessions
      */
-    private TvSession mCurrentSession = null;
+    private final ArrayList<TvSession> mSessions = new ArrayList<TvSession>();
+    /**
+     * Session that started mosaic preview, null while mosaic is not running
+     */
+    private TvSession mMosaicOwner = null;
 
     private Context mContext;
 
+    /**
+     * Handler for deferred engine release
+     */
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Releases engine if no new session was created within handover window. While engine is
+     * used without session, e.g. by scan service, release is retried after another window.
+     */
+    private final Runnable mReleaseEngineRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            synchronized (mSessions) {
+                if (!mSessions.isEmpty()) {
+                    return;
+                }
+            }
+            if (!mDtvEngine.deinitIfUnused()) {
+                mLog.d("[releaseEngine][engine is still used]");
+                mHandler.postDelayed(this, DtvEngine.HANDOVER_WINDOW_MS);
+                return;
+            }
+            mLog.d("[releaseEngine]");
+            DtvEngine.mServiceLocator.disconnect();
+        }
+    };
+
     @Override
     public void onCreate() {
         mLog.d("[onCreateService]");
@@ -84,13 +123,121 @@ public class TvService extends TvInputService implements ITvSession {
     @Override
     public final Session onCreateSession(String inputId) {
         mLog.d("[onCreateSession][" + inputId + "]");
-        TvSession tvSession = new TvSession(this, this, inputId);
-        return tvSession;
+        PlaybackType type;
+        mHandler.removeCallbacks(mReleaseEngineRunnable);
+        synchronized (mSessions) {
+            // First session drives main playback, second one is PIP
+            if (!isPlaybackTypeUsed(PlaybackType.MAIN)) {
+                type = PlaybackType.MAIN;
+            } else if (!isPlaybackTypeUsed(PlaybackType.PIP)) {
+                type = PlaybackType.PIP;
+            } else {
+                mLog.e("[onCreateSession][no free live route for new session]");
+                return null;
+            }
+            TvSession tvSession = new TvSession(this, this, inputId, type);
+            mSessions.add(tvSession);
+            return tvSession;
+        }
+    }
+
+    private boolean isPlaybackTypeUsed(PlaybackType type) {
+        for (TvSession session : mSessions) {
+            if (session.getPlaybackType() == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives main playback to PIP session once main session is gone. Session type is only
+     * guessed from creation order, TIF does not tell which session is PIP.
+     */
+    private void promotePipSession() {
+        for (TvSession session : mSessions) {
+            if (session.getPlaybackType() == PlaybackType.PIP) {
+                session.promoteToMain();
+                return;
+            }
+        }
     }
 
     @Override
     public void onSessionRelease(TvSession session) {
-        mLog.d("[onSessionRelease]");
-        mDtvEngine.deinit();
+        mLog.d("[onSessionRelease][" + session.getPlaybackType() + "]");
+        boolean mosaicOwner;
+        synchronized (mSessions) {
+            mSessions.remove(session);
+            mosaicOwner = session == mMosaicOwner;
+        }
+        if (mosaicOwner) {
+            // Nobody shows mosaic any more
+            onStopMosaic(session);
+        }
+        synchronized (mSessions) {
+            if (session.getPlaybackType() == PlaybackType.MAIN) {
+                promotePipSession();
+            }
+            if (!mSessions.isEmpty()) {
+                return;
+            }
+        }
+        // Last session is gone, keep engine for a while in case a new session takes over
+        mHandler.postDelayed(mReleaseEngineRunnable, DtvEngine.HANDOVER_WINDOW_MS);
+    }
+
+    /**
+     * Engine mosaic preview stops main and PIP playback, so sessions are paused first and
+     * resumed when mosaic stops.
+     */
+    @Override
+    public void onStartMosaic(TvSession session, List<ChannelDescriptor> channels,
+            int columns) {
+        mLog.d("[onStartMosaic][" + channels.size() + " channels]");
+        DtvEngine engine = DtvEngine.getInstance();
+        if (engine == null) {
+            mLog.e("[onStartMosaic][engine is not ready]");
+            return;
+        }
+        synchronized (mSessions) {
+            if (!mSessions.contains(session)) {
+                return;
+            }
+            for (TvSession paused : mSessions) {
+                paused.pauseForMosaic();
+            }
+            mMosaicOwner = session;
+        }
+        int tiles = 0;
+        try {
+            tiles = engine.startMosaic(channels, columns);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        if (tiles == 0) {
+            mLog.e("[onStartMosaic][no tile started]");
+            onStopMosaic(session);
+        }
+    }
+
+    @Override
+    public void onStopMosaic(TvSession session) {
+        ArrayList<TvSession> sessions;
+        synchronized (mSessions) {
+            if (mMosaicOwner == null) {
+                return;
+            }
+            mMosaicOwner = null;
+            sessions = new ArrayList<TvSession>(mSessions);
+        }
+        mLog.d("[onStopMosaic]");
+        DtvEngine engine = DtvEngine.getInstance();
+        if (engine != null) {
+            engine.stopMosaic();
+        }
+        for (TvSession paused : sessions) {
+            paused.resumeAfterMosaic();
+        }
     }
 }
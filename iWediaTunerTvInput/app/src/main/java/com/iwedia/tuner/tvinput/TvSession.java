@@ -18,6 +18,7 @@ import android.media.tv.TvInputManager;
 import android.media.tv.TvInputService;
 import android.media.tv.TvTrackInfo;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.RemoteException;
 import android.view.LayoutInflater;
 import android.view.Surface;
@@ -37,14 +38,32 @@ import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
 import com.iwedia.tuner.tvinput.engine.AudioManager;
 import com.iwedia.tuner.tvinput.engine.ChannelManager;
 import com.iwedia.tuner.tvinput.engine.DtvEngine;
+import com.iwedia.tuner.tvinput.engine.DtvEngine.PlaybackType;
 import com.iwedia.tuner.tvinput.engine.RouteManager;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class TvSession extends TvInputService.Session{
     private static final int DISP_LAYER_VIDEO_ID_0 = 0x01;
+    private static final int DISP_LAYER_VIDEO_ID_1 = 0x02;
+    /**
+     * App private commands for mosaic preview. Mosaic replaces live playback of all sessions,
+     * they resume their channels when it stops or when one of them is tuned.
+     */
+    public static final String ACTION_START_MOSAIC = "com.iwedia.tuner.tvinput.action.START_MOSAIC";
+    public static final String ACTION_PROMOTE_MOSAIC_TILE =
+            "com.iwedia.tuner.tvinput.action.PROMOTE_MOSAIC_TILE";
+    public static final String ACTION_STOP_MOSAIC = "com.iwedia.tuner.tvinput.action.STOP_MOSAIC";
+    /**
+     * Mosaic command keys: channel row IDs as long array, grid columns and tile index
+     */
+    public static final String KEY_MOSAIC_CHANNEL_IDS = "channel_ids";
+    public static final String KEY_MOSAIC_COLUMNS = "columns";
+    public static final String KEY_MOSAIC_TILE = "tile";
+    private static final int DEFAULT_MOSAIC_COLUMNS = 3;
     /**
      * Application context
      */
@@ -56,7 +75,7 @@ public class TvSession extends TvInputService.Session{
     /**
      * TextureView for rendering subtitles, ovned by overlay view
      */
-    private static ImageView mImageViewRadio = null;
+    private ImageView mImageViewRadio = null;
     /**
      * Object used to write to logcat output
      */
@@ -128,18 +147,49 @@ public class TvSession extends TvInputService.Session{
      */
     private ChannelDescriptor mCurrentChannel = null;
 
+    /**
+     * True while live playback of this session is replaced by mosaic preview
+     */
+    private volatile boolean mPausedByMosaic = false;
+
+    /**
+     * Number of alternate copies of current channel service tried after failed channel change
+     */
+    private int mAlternateAttempt = 0;
+
+    /**
+     * Playback driven by this session, main or PIP. PIP session is promoted to main when main
+     * session is released.
+     */
+    private volatile PlaybackType mPlaybackType;
+
+    /**
+     * Checks if MW callback is for live route of this session
+     */
+    private boolean isOwnRoute(int routeId) {
+        return mDtvEngine != null && routeId == mDtvEngine.getLiveRouteId(mPlaybackType);
+    }
+
     private IServiceCallback mServiceCallback = new IServiceCallback.Stub() {
         @Override
         public void channelChangeStatus(int routeId, boolean channelChanged, ServiceStateChangeError reason) {
             mLog.d("[channelChangeStatus][" + routeId + "][" + channelChanged + "]" + "[" + reason + "]");
+            if (!isOwnRoute(routeId)) {
+                return;
+            }
+            if (!channelChanged && startAlternate()) {
+                return;
+            }
 
             // ODOT: Register EPG callback on first successfull channel change
 
             try {
-                mLog.i("THE SKIES WILL BURN");
-                int id = mDtvEngine.getEpgManager().registerCallback(mDtvEngine.getEPGCallBack());
-                mDtvEngine.setCallbackId(id);
-                mLog.i("THE OCEANS TOO");
+                if (mPlaybackType == PlaybackType.MAIN) {
+                    mLog.i("THE SKIES WILL BURN");
+                    int id = mDtvEngine.getEpgManager().registerCallback(mDtvEngine.getEPGCallBack());
+                    mDtvEngine.setCallbackId(id);
+                    mLog.i("THE OCEANS TOO");
+                }
                 updateTracks();
             } catch (RemoteException e) {
                 e.printStackTrace();
@@ -172,6 +222,10 @@ public class TvSession extends TvInputService.Session{
         @Override
         public void updateServiceList(ServiceListUpdateData serviceListUpdateData) {
             mLog.d("[updateServiceList][service list update date: " + serviceListUpdateData + "]");
+            if (!isOwnRoute(serviceListUpdateData.getLiveRouteId()) || mChannelManager == null) {
+                return;
+            }
+            mChannelManager.applyServiceListUpdate(serviceListUpdateData, mCurrentChannel);
         }
     };
 
@@ -180,10 +234,13 @@ public class TvSession extends TvInputService.Session{
      *
      * @param sessionListener Listener through which reporting when session onRelease() is
      *                        called.
+     * @param playbackType    Playback driven by this session, main or PIP.
      */
-    public TvSession(Context context, ITvSession sessionListener, String inputID) {
+    public TvSession(Context context, ITvSession sessionListener, String inputID,
+            PlaybackType playbackType) {
         super(context);
-        mLog.d("[TvSession][Started!]");
+        mLog.d("[TvSession][Started!][" + playbackType + "]");
+        mPlaybackType = playbackType;
         mDtvEngine = DtvEngine.getInstance();
         mTvManager = (TvInputManager) context.getSystemService(Context.TV_INPUT_SERVICE);
         mInputID = inputID;
@@ -217,7 +274,7 @@ public class TvSession extends TvInputService.Session{
     public void onRelease() {
         mLog.d("[onRelease]");
         resetTracks();
-        stopPlayback();
+        releasePlayback();
         try {
            //
             if (mDtvEngine != null) {
@@ -230,9 +287,6 @@ public class TvSession extends TvInputService.Session{
         }
         mContentIsBlocked = false;
         mSessionListener.onSessionRelease(this);
-
-        mDtvEngine.mServiceLocator.disconnect();
-
     }
 
     @Override
@@ -244,7 +298,9 @@ public class TvSession extends TvInputService.Session{
         mVideoSurface = surface;
         SurfaceBundle bundle = new SurfaceBundle(surface);
         try {
-            mDtvEngine.getDtvManager().getDisplayControl().setVideoLayerSurface(DISP_LAYER_VIDEO_ID_0, bundle);
+            mDtvEngine.getDtvManager().getDisplayControl().setVideoLayerSurface(
+                    mPlaybackType == PlaybackType.MAIN ? DISP_LAYER_VIDEO_ID_0
+                            : DISP_LAYER_VIDEO_ID_1, bundle);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -296,18 +352,27 @@ public class TvSession extends TvInputService.Session{
         }
 
         mCurrentChannel = mChannelManager.getChannelById(id);
-        mDtvEngine.setCurrentlyActiveChannel((int)mCurrentChannel.getChannelId());
+        mAlternateAttempt = 0;
 
         if (mCurrentChannel == null) {
             mLog.d("[onTune][channel not fount][uri: " + channelUri + "]");
             mContentIsBlocked = false;
             return false;
         }
+        if (mPlaybackType == PlaybackType.MAIN) {
+            mDtvEngine.setCurrentlyActiveChannel((int) mCurrentChannel.getChannelId());
+        }
+        // Tuning ends mosaic preview, this session starts its new channel itself
+        final boolean stopMosaic = mPausedByMosaic;
+        mPausedByMosaic = false;
 
         new Thread(new Runnable() {
 
             @Override
             public void run() {
+                if (stopMosaic) {
+                    mSessionListener.onStopMosaic(TvSession.this);
+                }
                 notifyContentAllowed();
                 startPlayback();
             }
@@ -336,11 +401,11 @@ public class TvSession extends TvInputService.Session{
                     }
                 }
                 try {
+                    int routeId = mDtvEngine.getLiveRouteId(mPlaybackType);
                     mLog.d("[onSelectTrack][settingAudioTrack][routeId="
-                            + mRouteManager.getMainLiveRouteId()
+                            + routeId
                             + " index=" + mTracksIndices.get(trackId) + "]");
-                    mAudioManager.setAudioTrack(mRouteManager.getMainLiveRouteId(),
-                            mTracksIndices.get(trackId));
+                    mAudioManager.setAudioTrack(routeId, mTracksIndices.get(trackId));
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -361,10 +426,137 @@ public class TvSession extends TvInputService.Session{
         }
     }
 
+    @Override
+    public void onAppPrivateCommand(String action, final Bundle data) {
+        mLog.d("[onAppPrivateCommand][" + action + "]");
+        if (mChannelManager == null && !initTvManagers()) {
+            mLog.e("[onAppPrivateCommand][managers not created]");
+            return;
+        }
+        if (ACTION_START_MOSAIC.equals(action)) {
+            long[] ids = data != null ? data.getLongArray(KEY_MOSAIC_CHANNEL_IDS) : null;
+            if (ids == null) {
+                mLog.e("[onAppPrivateCommand][no mosaic channels]");
+                return;
+            }
+            final List<ChannelDescriptor> channels = new ArrayList<ChannelDescriptor>();
+            for (long id : ids) {
+                ChannelDescriptor channel = mChannelManager.getChannelById(id);
+                if (channel != null) {
+                    channels.add(channel);
+                }
+            }
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    mSessionListener.onStartMosaic(TvSession.this, channels,
+                            data.getInt(KEY_MOSAIC_COLUMNS, DEFAULT_MOSAIC_COLUMNS));
+                }
+            }).start();
+        } else if (ACTION_PROMOTE_MOSAIC_TILE.equals(action)) {
+            final int tile = data != null ? data.getInt(KEY_MOSAIC_TILE, -1) : -1;
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        mDtvEngine.getMosaicSession().promote(tile);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }).start();
+        } else if (ACTION_STOP_MOSAIC.equals(action)) {
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    mSessionListener.onStopMosaic(TvSession.this);
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * Called before mosaic preview stops live playback of this session. Session keeps its
+     * channel and starts it again when mosaic stops.
+     */
+    void pauseForMosaic() {
+        mLog.d("[pauseForMosaic][" + mCurrentChannel + "]");
+        mPausedByMosaic = true;
+        resetTracks();
+        notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
+    }
+
+    /**
+     * Called when mosaic preview stops, restarts channel that was paused for it
+     */
+    void resumeAfterMosaic() {
+        if (!mPausedByMosaic) {
+            return;
+        }
+        mPausedByMosaic = false;
+        mLog.d("[resumeAfterMosaic][" + mCurrentChannel + "]");
+        if (mCurrentChannel == null) {
+            return;
+        }
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                startPlayback();
+            }
+        }).start();
+    }
+
     public String getInputID() {
         return mInputID;
     }
 
+    public PlaybackType getPlaybackType() {
+        return mPlaybackType;
+    }
+
+    /**
+     * Moves PIP session to main playback, called when main session is released. TV app that
+     * creates new session before releasing old one, e.g. when its activity is recreated, gets
+     * new full screen session as PIP first.
+     */
+    void promoteToMain() {
+        if (mPlaybackType != PlaybackType.PIP) {
+            return;
+        }
+        mLog.d("[promoteToMain][" + mCurrentChannel + "]");
+        if (mDtvEngine != null) {
+            try {
+                mDtvEngine.stop(PlaybackType.PIP);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+        mPlaybackType = PlaybackType.MAIN;
+        if (mVideoSurface != null) {
+            onSetSurface(mVideoSurface);
+        }
+        if (mCurrentChannel == null || mDtvEngine == null) {
+            return;
+        }
+        mDtvEngine.setCurrentlyActiveChannel((int) mCurrentChannel.getChannelId());
+        if (mPausedByMosaic) {
+            // Started when mosaic stops
+            return;
+        }
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                // Takes over main playback of released session if it plays the same channel
+                startPlayback();
+            }
+        }).start();
+    }
+
 
     /**
      * Update audio and subtitle tracks information for currently selected
@@ -388,9 +580,10 @@ public class TvSession extends TvInputService.Session{
 
             if (mCurrentChannel != null) {
                 // Audio tracks
-                int audioTrackCount = mAudioManager.getTrackCount(mRouteManager.getMainLiveRouteId());
+                int routeId = mDtvEngine.getLiveRouteId(mPlaybackType);
+                int audioTrackCount = mAudioManager.getTrackCount(routeId);
                 for (int trackIndex = 0; trackIndex < audioTrackCount; trackIndex++) {
-                    AudioTrack audioTrack = mAudioManager.getTrack(mRouteManager.getMainLiveRouteId(), trackIndex);
+                    AudioTrack audioTrack = mAudioManager.getTrack(routeId, trackIndex);
                     String trackId = mTracks.size()
                             + "_" + audioTrack.getName()
                             + "_" + audioTrack.getLanguage();
@@ -426,7 +619,12 @@ public class TvSession extends TvInputService.Session{
                 }
             }
             try {
-                mDtvEngine.start(mCurrentChannel);
+                if (mDtvEngine.resume(mPlaybackType, mCurrentChannel)) {
+                    // Playback of previous session is taken over, no channel change callback
+                    updateTracks();
+                } else {
+                    mDtvEngine.start(mPlaybackType, mCurrentChannel);
+                }
             } catch (RemoteException e) {
                 e.printStackTrace();
                 return false;
@@ -452,6 +650,30 @@ public class TvSession extends TvInputService.Session{
         return true;
     }
 
+    /**
+     * Starts next copy of current channel service received on other transponder or frontend
+     *
+     * @return False if there is no alternate left to try
+     */
+    private boolean startAlternate() {
+        ChannelDescriptor channel = mCurrentChannel;
+        if (channel == null || mChannelManager == null) {
+            return false;
+        }
+        ChannelDescriptor alternate = mChannelManager.getAlternateChannel(channel,
+                mAlternateAttempt++);
+        if (alternate == null) {
+            return false;
+        }
+        mLog.i("[startAlternate][" + mAlternateAttempt + "][" + alternate + "]");
+        try {
+            return mDtvEngine.start(mPlaybackType, alternate);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     private boolean stopPlayback() {
         mLog.d("[stopPlayback]");
         if (mDtvEngine == null) {
@@ -460,7 +682,7 @@ public class TvSession extends TvInputService.Session{
         }
 
         try {
-            mDtvEngine.stop();
+            mDtvEngine.stop(mPlaybackType);
         } catch (RemoteException e) {
             e.printStackTrace();
             return false;
@@ -469,6 +691,18 @@ public class TvSession extends TvInputService.Session{
         return true;
     }
 
+    /**
+     * Releases playback, keeping it running shortly for session that may take it over
+     */
+    private void releasePlayback() {
+        mLog.d("[releasePlayback]");
+        if (mDtvEngine == null) {
+            mLog.e("[releasePlayback][managers not created]");
+            return;
+        }
+        mDtvEngine.release(mPlaybackType);
+    }
+
     private void resetTracks() {
         mTracks.clear();
         mTracksIndices.clear();
@@ -482,6 +716,18 @@ public class TvSession extends TvInputService.Session{
      */
     public interface ITvSession {
         public void onSessionRelease(TvSession session);
+
+        /**
+         * Pauses all sessions and starts mosaic preview of given channels. Called off main
+         * thread.
+         */
+        public void onStartMosaic(TvSession session, List<ChannelDescriptor> channels,
+                int columns);
+
+        /**
+         * Stops mosaic preview and resumes paused sessions. Called off main thread.
+         */
+        public void onStopMosaic(TvSession session);
     }
 }
 
@@ -14,10 +14,13 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.media.tv.TvContract.Channels;
 import android.net.Uri;
+import android.text.TextUtils;
 
 import com.iwedia.dtv.service.ServiceType;
 import com.iwedia.dtv.service.SourceType;
 
+import java.nio.ByteBuffer;
+
 /**
  * A convenience class for storing channel description
  */
@@ -45,6 +48,11 @@ public class ChannelDescriptor {
      */
     private final SourceType mSourceType;
 
+    /** DVB triplet identifying service independently of its position in MW list */
+    private final int mOriginalNetworkId;
+    private final int mTransportStreamId;
+    private final int mDvbServiceId;
+
     /**
      * Constructor for DVB channel
      *
@@ -53,12 +61,47 @@ public class ChannelDescriptor {
      */
     public ChannelDescriptor(String displayNumber, String name, int serviceId,
             SourceType type, ServiceType serviceType) {
+        this(displayNumber, name, serviceId, type, serviceType, EC_NOT_AVAILABLE,
+                EC_NOT_AVAILABLE, EC_NOT_AVAILABLE);
+    }
+
+    /**
+     * Constructor for DVB channel with service identity
+     *
+     * @param originalNetworkId DVB original network ID
+     * @param transportStreamId DVB transport stream ID
+     * @param dvbServiceId      DVB service ID
+     */
+    public ChannelDescriptor(String displayNumber, String name, int serviceId,
+            SourceType type, ServiceType serviceType, int originalNetworkId,
+            int transportStreamId, int dvbServiceId) {
         mDisplayNumber = displayNumber;
         mName = name;
         mServiceId = serviceId;
         mUrl = "";
         mSourceType = type;
         mServiceType = serviceType;
+        mOriginalNetworkId = originalNetworkId;
+        mTransportStreamId = transportStreamId;
+        mDvbServiceId = dvbServiceId;
+    }
+
+    /**
+     * Constructor restoring channel with all of its fields, used by channel snapshot file
+     */
+    ChannelDescriptor(long id, String displayNumber, String name, String url, int serviceId,
+            SourceType type, ServiceType serviceType, int originalNetworkId,
+            int transportStreamId, int dvbServiceId) {
+        mId = id;
+        mDisplayNumber = displayNumber;
+        mName = name;
+        mUrl = url;
+        mServiceId = serviceId;
+        mSourceType = type;
+        mServiceType = serviceType;
+        mOriginalNetworkId = originalNetworkId;
+        mTransportStreamId = transportStreamId;
+        mDvbServiceId = dvbServiceId;
     }
 
     /**
@@ -74,27 +117,72 @@ public class ChannelDescriptor {
         mSourceType = SourceType.IP;
         mServiceId = EC_NOT_AVAILABLE;
         mServiceType = ServiceType.DIG_TV;
+        mOriginalNetworkId = EC_NOT_AVAILABLE;
+        mTransportStreamId = EC_NOT_AVAILABLE;
+        mDvbServiceId = EC_NOT_AVAILABLE;
+    }
+
+    /**
+     * Column indices of channel cursor, resolved once per cursor
+     */
+    public static class CursorIndices {
+        private final int mId;
+        private final int mDisplayNumber;
+        private final int mDisplayName;
+        private final int mType;
+        private final int mServiceType;
+        private final int mServiceId;
+        private final int mOriginalNetworkId;
+        private final int mTransportStreamId;
+        private final int mInternalProviderData;
+
+        public CursorIndices(Cursor cursor) {
+            mId = cursor.getColumnIndex(Channels._ID);
+            mDisplayNumber = cursor.getColumnIndex(Channels.COLUMN_DISPLAY_NUMBER);
+            mDisplayName = cursor.getColumnIndex(Channels.COLUMN_DISPLAY_NAME);
+            mType = cursor.getColumnIndex(Channels.COLUMN_TYPE);
+            mServiceType = cursor.getColumnIndex(Channels.COLUMN_SERVICE_TYPE);
+            mServiceId = cursor.getColumnIndex(Channels.COLUMN_SERVICE_ID);
+            mOriginalNetworkId = cursor.getColumnIndex(Channels.COLUMN_ORIGINAL_NETWORK_ID);
+            mTransportStreamId = cursor.getColumnIndex(Channels.COLUMN_TRANSPORT_STREAM_ID);
+            mInternalProviderData = cursor.getColumnIndex(
+                    Channels.COLUMN_INTERNAL_PROVIDER_DATA);
+        }
     }
 
     public ChannelDescriptor(Cursor cursor) {
-        mId = cursor.getInt(cursor.getColumnIndex(Channels._ID));
-        mDisplayNumber = cursor.getString(cursor
-                .getColumnIndex(Channels.COLUMN_DISPLAY_NUMBER));
-        mSourceType = convertTifTypeToSourceType(cursor.getString(cursor
-                .getColumnIndex(Channels.COLUMN_TYPE)));
-        mServiceType = convertTifServiceTypeToServiceType(cursor.getString(cursor
-                .getColumnIndex(Channels.COLUMN_SERVICE_TYPE)));
+        this(cursor, new CursorIndices(cursor));
+    }
+
+    /**
+     * Constructor for channel read from TvProvider, with column indices resolved in advance
+     */
+    public ChannelDescriptor(Cursor cursor, CursorIndices indices) {
+        mId = cursor.getInt(indices.mId);
+        mDisplayNumber = cursor.getString(indices.mDisplayNumber);
+        mSourceType = convertTifTypeToSourceType(cursor.getString(indices.mType));
+        mServiceType = convertTifServiceTypeToServiceType(cursor.getString(indices.mServiceType));
         if (mSourceType == SourceType.IP) {
-            mUrl = cursor.getString(cursor
-                    .getColumnIndex(Channels.COLUMN_DISPLAY_NAME));
+            mUrl = cursor.getString(indices.mDisplayName);
             mName = "";
         } else {
-            mName = cursor.getString(cursor
-                    .getColumnIndex(Channels.COLUMN_DISPLAY_NAME));
+            mName = cursor.getString(indices.mDisplayName);
             mUrl = "";
         }
-        mServiceId = cursor.getInt(cursor
-                .getColumnIndex(Channels.COLUMN_SERVICE_ID));
+        mServiceId = cursor.getInt(indices.mServiceId);
+        mOriginalNetworkId = getInt(cursor, indices.mOriginalNetworkId);
+        mTransportStreamId = getInt(cursor, indices.mTransportStreamId);
+        byte[] data = indices.mInternalProviderData < 0 ? null
+                : cursor.getBlob(indices.mInternalProviderData);
+        mDvbServiceId = data == null || data.length < 4 ? EC_NOT_AVAILABLE
+                : ByteBuffer.wrap(data).getInt();
+    }
+
+    private static int getInt(Cursor cursor, int index) {
+        if (index < 0 || cursor.isNull(index)) {
+            return EC_NOT_AVAILABLE;
+        }
+        return cursor.getInt(index);
     }
 
 
@@ -109,7 +197,10 @@ public class ChannelDescriptor {
         ret.put(Channels.COLUMN_TYPE, convertSourceTypeToTifType(mSourceType));
         ret.put(Channels.COLUMN_SERVICE_ID, mServiceId);
         ret.put(Channels.COLUMN_INPUT_ID, inputId);
-        ret.put(Channels.COLUMN_ORIGINAL_NETWORK_ID, mId);
+        ret.put(Channels.COLUMN_ORIGINAL_NETWORK_ID, mOriginalNetworkId);
+        ret.put(Channels.COLUMN_TRANSPORT_STREAM_ID, mTransportStreamId);
+        ret.put(Channels.COLUMN_INTERNAL_PROVIDER_DATA,
+                ByteBuffer.allocate(4).putInt(mDvbServiceId).array());
         ret.put(Channels.COLUMN_SERVICE_TYPE, convertServiceTypeToTifServiceType(mServiceType));
         ret.put(Channels.COLUMN_SEARCHABLE, 1);
         ret.put(COLUMN_BROWSABLE, 1);
@@ -245,6 +336,53 @@ public class ChannelDescriptor {
         return mServiceType;
     }
 
+    public int getOriginalNetworkId() {
+        return mOriginalNetworkId;
+    }
+
+    public int getTransportStreamId() {
+        return mTransportStreamId;
+    }
+
+    public int getDvbServiceId() {
+        return mDvbServiceId;
+    }
+
+    /**
+     * Gets key identifying service across rescans, MW service index is not stable
+     */
+    public String getServiceKey() {
+        if (mSourceType == SourceType.IP) {
+            return mSourceType + ":" + mUrl;
+        }
+        if (mDvbServiceId == EC_NOT_AVAILABLE) {
+            return mSourceType + ":" + mName;
+        }
+        return mSourceType + ":" + mOriginalNetworkId + ":" + mTransportStreamId + ":"
+                + mDvbServiceId;
+    }
+
+    /**
+     * Creates copy of this channel that plays other master list copy of the same service
+     */
+    public ChannelDescriptor withServiceId(int serviceId) {
+        return new ChannelDescriptor(mId, mDisplayNumber, mName, mUrl, serviceId, mSourceType,
+                mServiceType, mOriginalNetworkId, mTransportStreamId, mDvbServiceId);
+    }
+
+    /**
+     * Checks if database row of this channel has to be rewritten to match given channel
+     */
+    public boolean hasSameContent(ChannelDescriptor other) {
+        return mServiceId == other.mServiceId && mSourceType == other.mSourceType
+                && mServiceType == other.mServiceType
+                && mOriginalNetworkId == other.mOriginalNetworkId
+                && mTransportStreamId == other.mTransportStreamId
+                && mDvbServiceId == other.mDvbServiceId
+                && TextUtils.equals(mDisplayNumber, other.mDisplayNumber)
+                && TextUtils.equals(mName, other.mName) && TextUtils.equals(mUrl, other.mUrl);
+    }
+
     @Override
     public String toString() {
         if (mSourceType == SourceType.IP) {
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.data;
+
+import com.iwedia.dtv.service.ServiceType;
+import com.iwedia.dtv.service.SourceType;
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary copy of channel list, read through memory mapping at startup so channels are
+ * available before TvProvider is queried.
+ */
+public class ChannelSnapshotFile {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private static final Logger mLog = new Logger(TvService.APP_NAME
+            + ChannelSnapshotFile.class.getSimpleName(), Logger.ERROR);
+
+    private static final int MAGIC = 0x43484e53;
+    private static final int VERSION = 1;
+
+    private final File mFile;
+
+    public ChannelSnapshotFile(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Reads channels from snapshot file
+     *
+     * @return Channels, or null if there is no valid snapshot
+     */
+    public ArrayList<ChannelDescriptor> read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                mLog.w("[read][unknown snapshot format]");
+                return null;
+            }
+            SourceType[] sourceTypes = SourceType.values();
+            ServiceType[] serviceTypes = ServiceType.values();
+            int count = buffer.getInt();
+            ArrayList<ChannelDescriptor> channels = new ArrayList<ChannelDescriptor>(count);
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                int serviceId = buffer.getInt();
+                int sourceType = buffer.get();
+                int serviceType = buffer.get();
+                int originalNetworkId = buffer.getInt();
+                int transportStreamId = buffer.getInt();
+                int dvbServiceId = buffer.getInt();
+                String displayNumber = getString(buffer);
+                String name = getString(buffer);
+                String url = getString(buffer);
+                if (sourceType >= sourceTypes.length || serviceType >= serviceTypes.length) {
+                    mLog.w("[read][snapshot written by other MW version]");
+                    return null;
+                }
+                channels.add(new ChannelDescriptor(id, displayNumber, name, url, serviceId,
+                        sourceTypes[sourceType], serviceTypes[serviceType], originalNetworkId,
+                        transportStreamId, dvbServiceId));
+            }
+            return channels;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (BufferUnderflowException e) {
+            mLog.e("[read][snapshot is truncated]");
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces snapshot file with given channels. New snapshot is written to temporary file
+     * first, so reader never sees partially written snapshot.
+     *
+     * @return True if snapshot is written
+     */
+    public boolean write(List<ChannelDescriptor> channels) {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(channels.size());
+            for (ChannelDescriptor channel : channels) {
+                out.writeLong(channel.getChannelId());
+                out.writeInt(channel.getServiceId());
+                out.writeByte(channel.getSourceType().ordinal());
+                out.writeByte(channel.getServiceType().ordinal());
+                out.writeInt(channel.getOriginalNetworkId());
+                out.writeInt(channel.getTransportStreamId());
+                out.writeInt(channel.getDvbServiceId());
+                putString(out, channel.getDisplayNumber());
+                putString(out, channel.getName());
+                putString(out, channel.getUrl());
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                mLog.e("[write][rename failed]");
+                return false;
+            }
+            mLog.d("[write][" + channels.size() + " channels]");
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes snapshot file
+     */
+    public void delete() {
+        mFile.delete();
+    }
+
+    private static String getString(MappedByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xffff);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+}
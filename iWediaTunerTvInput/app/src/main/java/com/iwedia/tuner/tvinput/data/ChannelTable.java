@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.data;
+
+import com.iwedia.dtv.service.ServiceType;
+import com.iwedia.dtv.service.SourceType;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable columnar channel table. Channel fields are kept in primitive arrays and names and
+ * numbers in a deduplicated string pool, so large lineups take little heap. Table is a list
+ * view of channels, {@link ChannelDescriptor} is created only for channel that is read.
+ */
+public class ChannelTable extends AbstractList<ChannelDescriptor> implements RandomAccess {
+
+    public static final ChannelTable EMPTY = new ChannelTable(
+            Collections.<ChannelDescriptor> emptyList());
+
+    private static final SourceType[] SOURCE_TYPES = SourceType.values();
+    private static final ServiceType[] SERVICE_TYPES = ServiceType.values();
+
+    private final int mSize;
+    private final long[] mIds;
+    private final int[] mServiceIndices;
+    private final byte[] mSourceTypes;
+    private final byte[] mServiceTypes;
+    private final int[] mOriginalNetworkIds;
+    private final int[] mTransportStreamIds;
+    private final int[] mDvbServiceIds;
+
+    /** References to string pool */
+    private final int[] mDisplayNumbers;
+    private final int[] mNames;
+    private final int[] mUrls;
+    private final String[] mStrings;
+
+    /**
+     * Lookup index of TvProvider IDs, sorted IDs packed with their row in lower 32 bits
+     */
+    private final long[] mIdIndex;
+
+    /**
+     * Open addressing hash map from MW service index to row + 1, 0 marks free slot
+     */
+    private final int[] mServiceIndexSlots;
+
+    public ChannelTable(List<ChannelDescriptor> channels) {
+        mSize = channels.size();
+        mIds = new long[mSize];
+        mServiceIndices = new int[mSize];
+        mSourceTypes = new byte[mSize];
+        mServiceTypes = new byte[mSize];
+        mOriginalNetworkIds = new int[mSize];
+        mTransportStreamIds = new int[mSize];
+        mDvbServiceIds = new int[mSize];
+        mDisplayNumbers = new int[mSize];
+        mNames = new int[mSize];
+        mUrls = new int[mSize];
+        mIdIndex = new long[mSize];
+        int capacity = 2;
+        while (capacity < mSize * 2) {
+            capacity <<= 1;
+        }
+        mServiceIndexSlots = new int[capacity];
+
+        HashMap<String, Integer> pool = new HashMap<String, Integer>();
+        for (int i = 0; i < mSize; i++) {
+            ChannelDescriptor channel = channels.get(i);
+            mIds[i] = channel.getChannelId();
+            mServiceIndices[i] = channel.getServiceId();
+            mSourceTypes[i] = (byte) channel.getSourceType().ordinal();
+            mServiceTypes[i] = (byte) channel.getServiceType().ordinal();
+            mOriginalNetworkIds[i] = channel.getOriginalNetworkId();
+            mTransportStreamIds[i] = channel.getTransportStreamId();
+            mDvbServiceIds[i] = channel.getDvbServiceId();
+            mDisplayNumbers[i] = intern(pool, channel.getDisplayNumber());
+            mNames[i] = intern(pool, channel.getName());
+            mUrls[i] = intern(pool, channel.getUrl());
+            // TvProvider row IDs fit in 32 bits
+            mIdIndex[i] = (mIds[i] << 32) | i;
+            putServiceIndex(i);
+        }
+        mStrings = new String[pool.size()];
+        for (Map.Entry<String, Integer> entry : pool.entrySet()) {
+            mStrings[entry.getValue()] = entry.getKey();
+        }
+        Arrays.sort(mIdIndex);
+    }
+
+    private int slotOf(int serviceIndex) {
+        int hash = serviceIndex * 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & (mServiceIndexSlots.length - 1);
+    }
+
+    /**
+     * Adds row to service index map, first row with given service index wins
+     */
+    private void putServiceIndex(int row) {
+        int mask = mServiceIndexSlots.length - 1;
+        for (int slot = slotOf(mServiceIndices[row]);; slot = (slot + 1) & mask) {
+            int stored = mServiceIndexSlots[slot];
+            if (stored == 0) {
+                mServiceIndexSlots[slot] = row + 1;
+                return;
+            }
+            if (mServiceIndices[stored - 1] == mServiceIndices[row]) {
+                return;
+            }
+        }
+    }
+
+    private static int intern(HashMap<String, Integer> pool, String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer ref = pool.get(value);
+        if (ref == null) {
+            ref = pool.size();
+            pool.put(value, ref);
+        }
+        return ref;
+    }
+
+    private String getString(int ref) {
+        return ref < 0 ? null : mStrings[ref];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public ChannelDescriptor get(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + mSize);
+        }
+        return new ChannelDescriptor(mIds[row], getString(mDisplayNumbers[row]),
+                getString(mNames[row]), getString(mUrls[row]), mServiceIndices[row],
+                SOURCE_TYPES[mSourceTypes[row]], SERVICE_TYPES[mServiceTypes[row]],
+                mOriginalNetworkIds[row], mTransportStreamIds[row], mDvbServiceIds[row]);
+    }
+
+    public long getChannelId(int row) {
+        return mIds[row];
+    }
+
+    public int getServiceIndex(int row) {
+        return mServiceIndices[row];
+    }
+
+    /**
+     * Finds row of channel with given TvProvider ID
+     *
+     * @return Row, or -1 if there is no such channel
+     */
+    public int indexOfChannelId(long id) {
+        return find(mIdIndex, id);
+    }
+
+    /**
+     * Finds row of channel with given MW master list index
+     *
+     * @return Row, or -1 if there is no such channel
+     */
+    public int indexOfServiceIndex(int serviceIndex) {
+        int mask = mServiceIndexSlots.length - 1;
+        for (int slot = slotOf(serviceIndex);; slot = (slot + 1) & mask) {
+            int stored = mServiceIndexSlots[slot];
+            if (stored == 0) {
+                return -1;
+            }
+            if (mServiceIndices[stored - 1] == serviceIndex) {
+                return stored - 1;
+            }
+        }
+    }
+
+    /**
+     * Gets TvProvider ID of channel with given MW master list index
+     *
+     * @return Channel ID, or {@link ChannelDescriptor#EC_NOT_AVAILABLE} if there is no such
+     *         channel
+     */
+    public long getChannelIdByServiceIndex(int serviceIndex) {
+        int row = indexOfServiceIndex(serviceIndex);
+        return row < 0 ? ChannelDescriptor.EC_NOT_AVAILABLE : mIds[row];
+    }
+
+    private static int find(long[] index, long key) {
+        // Keys are in upper 32 bits, row in lower ones
+        int low = 0;
+        int high = index.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = index[mid] >> 32;
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return (int) index[mid];
+            }
+        }
+        return -1;
+    }
+}
@@ -11,18 +11,22 @@
 package com.iwedia.tuner.tvinput.engine;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.media.tv.TvContract;
 import android.media.tv.TvContract.Channels;
 import android.net.Uri;
 import android.os.RemoteException;
+import android.os.SystemClock;
 
 
 import com.iwedia.dtv.IDTVManager;
 import com.iwedia.dtv.route.broadcast.IBroadcastRouteControl;
-import com.iwedia.dtv.route.broadcast.RouteFrontendType;
 import com.iwedia.dtv.route.broadcast.RouteInstallSettings;
 import com.iwedia.dtv.route.broadcast.routemanager.Routes;
 import com.iwedia.dtv.scan.IScanCallback;
@@ -30,16 +34,39 @@ import com.iwedia.dtv.scan.IScanControl;
 import com.iwedia.dtv.scan.Modulation;
 import com.iwedia.dtv.scan.Polarization;
 import com.iwedia.dtv.scan.FecType;
-import com.iwedia.dtv.service.IServiceControl;
+import com.iwedia.dtv.scan.TunerStatus;
 import com.iwedia.dtv.service.ServiceDescriptor;
+import com.iwedia.dtv.service.ServiceListUpdateData;
 import com.iwedia.dtv.service.SourceType;
 import com.iwedia.tuner.tvinput.TvService;
 import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
+import com.iwedia.tuner.tvinput.data.ChannelSnapshotFile;
+import com.iwedia.tuner.tvinput.data.ChannelTable;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -63,7 +90,89 @@ public class ChannelManager {
     /**
      * All channels
      */
-    private ArrayList<ChannelDescriptor> mAllChannels;
+    private volatile ChannelTable mAllChannels = ChannelTable.EMPTY;
+
+    /**
+     * Number of channels read from cursor at once, first page is available immediately
+     */
+    private static final int LOAD_PAGE_SIZE = 100;
+
+    /**
+     * Channels are read in channel number order, so first page holds lowest numbers. Display
+     * number is text, it is compared as number first.
+     */
+    private static final String CHANNEL_SORT_ORDER = "CAST(" + Channels.COLUMN_DISPLAY_NUMBER
+            + " AS INTEGER), " + Channels.COLUMN_DISPLAY_NUMBER;
+
+    /**
+     * In-memory counterpart of CHANNEL_SORT_ORDER, for lists patched without re-reading
+     */
+    private static final Comparator<ChannelDescriptor> CHANNEL_ORDER =
+            new Comparator<ChannelDescriptor>() {
+                @Override
+                public int compare(ChannelDescriptor lhs, ChannelDescriptor rhs) {
+                    String lhsNumber = lhs.getDisplayNumber();
+                    String rhsNumber = rhs.getDisplayNumber();
+                    long lhsValue = castToInteger(lhsNumber);
+                    long rhsValue = castToInteger(rhsNumber);
+                    if (lhsValue != rhsValue) {
+                        return lhsValue < rhsValue ? -1 : 1;
+                    }
+                    if (lhsNumber == null || rhsNumber == null) {
+                        return lhsNumber == rhsNumber ? 0 : (lhsNumber == null ? -1 : 1);
+                    }
+                    return lhsNumber.compareTo(rhsNumber);
+                }
+            };
+
+    /**
+     * Delay in ms for collecting channel row changes before they are re-read
+     */
+    private static final long CHANNEL_CHANGE_DELAY_MS = 200;
+
+    /**
+     * Above this number of changed rows whole channel list is reloaded
+     */
+    private static final int MAX_PATCHED_CHANNELS = 100;
+
+    /** Channel rows changed in TvProvider since last re-read */
+    private HashSet<Long> mChangedChannelIds = new HashSet<Long>();
+    private boolean mReloadAllChannels = false;
+    private boolean mChannelChangesScheduled = false;
+
+    /**
+     * Time in ms during which notification for row written by this manager is taken as
+     * notification of that write
+     */
+    private static final long OWN_WRITE_WINDOW_MS = 5000;
+
+    /**
+     * Channel rows written by this manager, with time of write. Their change notifications
+     * are not re-read, written data is published by the writer.
+     */
+    private final HashMap<Long, Long> mOwnWrites = new HashMap<Long, Long>();
+    private int mOwnWritesInFlight = 0;
+
+    private static final String SNAPSHOT_FILE_NAME = "channels.snapshot";
+
+    /**
+     * Delay in ms after channel list change before snapshot file is written
+     */
+    private static final long SNAPSHOT_WRITE_DELAY_MS = 1000;
+
+    /**
+     * Binary copy of channel list for fast startup
+     */
+    private final ChannelSnapshotFile mSnapshotFile;
+
+    /** Channel list last written to snapshot file */
+    private ChannelTable mSnapshotChannels;
+    private boolean mSnapshotScheduled = false;
+
+    /**
+     * Released when background loading of channels is complete
+     */
+    private volatile CountDownLatch mLoadLatch;
     /**
      * ID of TV Input
      */
@@ -99,6 +208,147 @@ public class ChannelManager {
      */
     private IBroadcastRouteControl mBroadcastRouteControl;
 
+    /**
+     * Scan running on one install route. Aborts the scan when higher priority consumer needs
+     * its frontend.
+     */
+    private class ScanRun implements ResourceArbiter.IPreemptionListener {
+        private final int mRouteId;
+        private final SourceType mType;
+        private ResourceArbiter.Lease mLease;
+
+        private ScanRun(int routeId, SourceType type) {
+            mRouteId = routeId;
+            mType = type;
+        }
+
+        @Override
+        public void onLeasePreempted(ResourceArbiter.Lease lease) {
+            mLog.i("[onLeasePreempted][aborting " + mType + " scan on route " + mRouteId + "]");
+            try {
+                mScanControl.abortScan(mRouteId);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Running scans by install route ID
+     */
+    private final HashMap<Integer, ScanRun> mScans = new HashMap<Integer, ScanRun>();
+
+    /**
+     * Auto scans waiting for frontend that is used by another running scan
+     */
+    private final ArrayList<SourceType> mQueuedAutoScans = new ArrayList<SourceType>();
+
+    /**
+     * Running transponder list scan
+     */
+    private ScanJob mScanJob;
+
+    /**
+     * Service keys of channel list when scan job started, used to validate transponders
+     */
+    private HashSet<String> mScanJobServiceKeys;
+
+    /**
+     * True if next transponder of scan job appends its services to master list, false if it
+     * rebuilds master list
+     */
+    private boolean mScanJobAppend;
+
+    private static final String TRANSPONDER_CACHE_FILE_NAME = "transponders.cache";
+
+    /**
+     * Time in ms to wait for lock when unchanged transponder is validated
+     */
+    private static final long VALIDATE_TIMEOUT_MS = 2000;
+    private static final long VALIDATE_POLL_MS = 50;
+
+    /**
+     * Executor programming transponders of scan job, validation of unchanged transponders
+     * blocks it while waiting for lock
+     */
+    private final ExecutorService mScanJobExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Services found on each transponder by previous scans
+     */
+    private final TransponderCache mTransponderCache;
+
+    private static final String SCAN_CHECKPOINT_FILE_NAME = "scanjob.checkpoint";
+
+    /**
+     * Progress of running or interrupted scan job
+     */
+    private final ScanJobCheckpoint mScanJobCheckpoint;
+
+    /**
+     * Service keys found on transponders done before resumed scan job was interrupted, they
+     * are kept when scan completes
+     */
+    private HashSet<String> mResumedServiceKeys;
+
+    /**
+     * Number of channels inserted in one TvProvider transaction
+     */
+    private static final int STORE_BATCH_SIZE = 200;
+
+    /**
+     * Default number of service descriptor requests sent to MW at the same time
+     */
+    private static final int DEFAULT_DESCRIPTOR_FETCH_CONCURRENCY = 4;
+
+    private int mDescriptorFetchConcurrency = DEFAULT_DESCRIPTOR_FETCH_CONCURRENCY;
+
+    /**
+     * Time in seconds idle descriptor fetch worker is kept
+     */
+    private static final long FETCH_WORKER_KEEP_ALIVE_S = 30;
+
+    /**
+     * Workers fetching service descriptors, shared by all fetches so that concurrent fetches
+     * together do not send more requests to MW than fetch concurrency
+     */
+    private final ThreadPoolExecutor mFetchExecutor = new ThreadPoolExecutor(
+            DEFAULT_DESCRIPTOR_FETCH_CONCURRENCY, DEFAULT_DESCRIPTOR_FETCH_CONCURRENCY,
+            FETCH_WORKER_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    /**
+     * Delay in ms after first newly found service before services are written to database
+     */
+    private static final long INGEST_DELAY_MS = 500;
+
+    /**
+     * Executor writing services found by scan, all ingest state is accessed only on it
+     */
+    private final ScheduledExecutorService mIngestExecutor = Executors
+            .newSingleThreadScheduledExecutor();
+    private boolean mIngestActive = false;
+    private boolean mIngestScheduled = false;
+    private SourceType mIngestType;
+    private List<ChannelDescriptor> mIngestChannels;
+    private HashMap<String, ChannelDescriptor> mIngestStored;
+    private int mIngestNextIndex;
+    private ServiceDeduplicator mIngestDeduplicator;
+
+    /**
+     * Signal levels reported by running scan, used to pick best copy of duplicate services
+     */
+    private final ScanSignals mScanSignals = new ScanSignals();
+
+    /**
+     * Master list indices of other copies of deduplicated services, best first, keyed by
+     * service key
+     */
+    private Map<String, int[]> mServiceAlternates = new HashMap<String, int[]>();
+
+    /** Channel insert batch metrics */
+    private int mStoreBatchCount = 0;
+    private long mStoreTotalLatency = 0;
+
     /**
      * Constructor
      *
@@ -114,6 +364,13 @@ public class ChannelManager {
         mScanControl = mDtvEngine.getDtvManager().getScanControl();
         mInputId = TvContract.buildInputId(new ComponentName(mContext,TvService.class));
         mDvbChannelCounter = 0;
+        mSnapshotFile = new ChannelSnapshotFile(new File(mContext.getFilesDir(),
+                SNAPSHOT_FILE_NAME));
+        mTransponderCache = new TransponderCache(new File(mContext.getFilesDir(),
+                TRANSPONDER_CACHE_FILE_NAME));
+        mScanJobCheckpoint = new ScanJobCheckpoint(new File(mContext.getFilesDir(),
+                SCAN_CHECKPOINT_FILE_NAME));
+        mFetchExecutor.allowCoreThreadTimeOut(true);
 
     }
 
@@ -124,14 +381,69 @@ public class ChannelManager {
      */
     public void init() throws RemoteException {
         mLog.v("initialize ChannelManager");
-        mAllChannels = loadChannels(mInputId);
-        mDvbChannelCounter = mAllChannels.size();
-        if (mAllChannels.isEmpty()) {
-            mLog.i("[initialize][first time initialization]");
+        ArrayList<ChannelDescriptor> snapshotChannels = mSnapshotFile.read();
+        if (snapshotChannels != null && !snapshotChannels.isEmpty()) {
+            // Channels are usable right away, TvProvider is checked in background
+            mLog.i("[initialize][" + snapshotChannels.size() + " channels from snapshot]");
+            ChannelTable snapshot = new ChannelTable(snapshotChannels);
+            synchronized (this) {
+                mAllChannels = snapshot;
+                mSnapshotChannels = snapshot;
+            }
+            mDvbChannelCounter = snapshot.size();
+            reconcileSnapshot(snapshot);
+        } else {
+            mDvbChannelCounter = loadChannelsPaged(mInputId);
+            if (mDvbChannelCounter == 0) {
+                mLog.i("[initialize][first time initialization]");
 
-            refreshChannelList();
+                refreshChannelList();
+            }
         }
         print(mAllChannels);
+        mContext.getContentResolver().registerContentObserver(
+                TvContract.buildChannelsUriForInput(mInputId), true, mChannelObserver);
+    }
+
+    /**
+     * Runs task on ingest executor
+     *
+     * @return False if manager is released and task is dropped
+     */
+    private boolean runIngestTask(Runnable task) {
+        return scheduleIngestTask(task, 0);
+    }
+
+    /**
+     * Runs task on ingest executor after given delay. Scan callbacks and other producers may
+     * still call in after manager is released, their tasks are dropped then.
+     *
+     * @return False if manager is released and task is dropped
+     */
+    private boolean scheduleIngestTask(Runnable task, long delayMs) {
+        if (mIngestExecutor.isShutdown()) {
+            mLog.w("[scheduleIngestTask][channel manager is released, task dropped]");
+            return false;
+        }
+        try {
+            mIngestExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Released while task was being scheduled
+            mLog.w("[scheduleIngestTask][channel manager is released, task dropped]");
+            return false;
+        }
+    }
+
+    /**
+     * Releases resources of channel manager
+     */
+    public void deinit() {
+        mLog.d("[deinit]");
+        mContext.getContentResolver().unregisterContentObserver(mChannelObserver);
+        mIngestExecutor.shutdownNow();
+        mFetchExecutor.shutdownNow();
+        mScanJobExecutor.shutdownNow();
     }
 
     /**
@@ -141,227 +453,1696 @@ public class ChannelManager {
      */
     public ChannelDescriptor getChannelById(long id) {
         mLog.d("[getChannelByUri][" + id + "]");
-        for (ChannelDescriptor cd : mAllChannels) {
-            if (cd.getChannelId() == id) {
-                return cd;
-            }
+        ChannelTable channels = mAllChannels;
+        int row = channels.indexOfChannelId(id);
+        if (row < 0 && mLoadLatch != null && mLoadLatch.getCount() > 0) {
+            // Channel may be on a page that is still being loaded
+            awaitChannelsLoaded();
+            channels = mAllChannels;
+            row = channels.indexOfChannelId(id);
         }
-        return null;
+        return row < 0 ? null : channels.get(row);
+    }
+
+    /**
+     * Gets TvProvider ID of channel with given MW master list index
+     *
+     * @return Channel ID, or {@link ChannelDescriptor#EC_NOT_AVAILABLE} if there is no such
+     *         channel
+     */
+    public long getChannelIdByMwIndex(int channelIndex) {
+        return mAllChannels.getChannelIdByServiceIndex(channelIndex);
     }
 
     public ChannelDescriptor getChannelByMwIndex(int channelIndex) {
         mLog.d("[getChannelByIndex][" + channelIndex + "]");
-        for (int i = 0; i < mAllChannels.size(); i++) {
-            if (mAllChannels.get(i).getServiceId() == channelIndex) {
-                return mAllChannels.get(i);
-            }
-        }
+        ChannelTable channels = mAllChannels;
+        int row = channels.indexOfServiceIndex(channelIndex);
+        return row < 0 ? null : channels.get(row);
+    }
 
-        return null;
+    private Cursor queryChannels(String inputId) {
+        return queryChannels(inputId, null, null);
     }
 
-    private ArrayList<ChannelDescriptor> loadChannels(String inputId) {
-        mLog.d("[loadChannels]");
-        ArrayList<ChannelDescriptor> ret = new ArrayList<ChannelDescriptor>();
+    private Cursor queryChannels(String inputId, String selection, String[] selectionArgs) {
         final String[] projection = {
                 Channels._ID,
                 Channels.COLUMN_DISPLAY_NAME, Channels.COLUMN_DISPLAY_NUMBER,
-                Channels.COLUMN_SERVICE_ID, Channels.COLUMN_TYPE, Channels.COLUMN_SERVICE_TYPE
+                Channels.COLUMN_SERVICE_ID, Channels.COLUMN_TYPE, Channels.COLUMN_SERVICE_TYPE,
+                Channels.COLUMN_ORIGINAL_NETWORK_ID, Channels.COLUMN_TRANSPORT_STREAM_ID,
+                Channels.COLUMN_INTERNAL_PROVIDER_DATA
         };
-        Cursor cursor = mContext.getContentResolver().query(
-                TvContract.buildChannelsUriForInput(mInputId), projection,
-                null, null, null);
-        if (cursor == null) {
-            return ret;
-        }
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            ChannelDescriptor cd = new ChannelDescriptor(cursor);
-            mLog.d("[loadChannels] index=" + cd.getChannelId() + " info=" + cd);
-            ret.add(cd);
-            cursor.moveToNext();
-        }
-        cursor.close();
+        return mContext.getContentResolver().query(
+                TvContract.buildChannelsUriForInput(inputId), projection,
+                selection, selectionArgs, CHANNEL_SORT_ORDER);
+    }
 
-        return ret;
+    /**
+     * Replaces channel snapshot
+     */
+    private synchronized ChannelTable publishChannels(List<ChannelDescriptor> channels) {
+        ChannelTable table = new ChannelTable(channels);
+        mAllChannels = table;
+        scheduleSnapshotWrite();
+        return table;
     }
 
     /**
-     * Inserts channels into TvProvider database
-     *
-     * @param inputId  this TV input service
-     * @param channels to be inserted into a TVProvider database
+     * Schedules write of channel snapshot file. Caller must hold manager lock.
      */
-    private void storeChannels(String inputId, List<ChannelDescriptor> channels) {
-        mLog.d("[storeChannels]");
-        final String[] projection = {
-                TvContract.Channels._ID,
-                TvContract.Channels.COLUMN_DISPLAY_NAME,
-                TvContract.Channels.COLUMN_DISPLAY_NUMBER,
-        };
-        Cursor cursor = mContext.getContentResolver().query(
-                TvContract.buildChannelsUriForInput(mInputId), projection,
-                null, null, null);
-        if (cursor == null) {
-            mLog.e("[storeChannels][cursor is null");
+    private void scheduleSnapshotWrite() {
+        if (mSnapshotScheduled) {
             return;
         }
-        for (ChannelDescriptor channel : channels) {
-            Uri retUri = mContext.getContentResolver().insert(
-                    TvContract.Channels.CONTENT_URI,
-                    channel.getContentValues(inputId));
-            if (retUri == null) {
-                mLog.e("[storeChannels][error adding channel to the database");
-            } else {
-                channel.setId(ContentUris.parseId(retUri));
-                mLog.i("[storeChannels][add channel][" + channel + "]");
+        mSnapshotScheduled = true;
+        scheduleIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                // Do not write first page of channels that are still being loaded
+                awaitChannelsLoaded();
+                ChannelTable channels;
+                synchronized (ChannelManager.this) {
+                    mSnapshotScheduled = false;
+                    channels = mAllChannels;
+                    if (channels == mSnapshotChannels) {
+                        return;
+                    }
+                    mSnapshotChannels = channels;
+                }
+                mSnapshotFile.write(channels);
             }
-        }
-        cursor.close();
+        }, SNAPSHOT_WRITE_DELAY_MS);
     }
 
-    public void refreshChannelList(/*Routes routes*/) throws RemoteException {
-        mLog.d("[refreshChannelList]");
-        int displayNumber = 1;
-        String formattedChannelNumber = "";
-        List<ChannelDescriptor> channels = new ArrayList<ChannelDescriptor>();
-        IServiceControl serviceControl = mDTVManger.getServiceControl();
-        mAllChannels = new ArrayList<ChannelDescriptor>();
-        // 1) Delete all channels from TV provider database
-        mContext.getContentResolver().delete(
-                TvContract.buildChannelsUriForInput(mInputId), null, null);
-        mContext.getContentResolver().delete(TvContract.Programs.CONTENT_URI,
-                null, null);
-        // 2) Add DVB channels founded from scan
-        int channelListSize = getChannelListSize();
-        // ! Limitation: support only 1 DVB route in this cable
-        SourceType type = SourceType.UNDEFINED;
-        //if (routes == mDtvEngine.getRouteManager().getCabRoute()) {
-        type = SourceType.SAT;
-        //}
-        for (int i = 0; i < channelListSize; i++) {
-            // ! If there is IP first element in service list (use case with
-            // Hybrid tuner) it's a DUMMY channel
-            ServiceDescriptor servDesc = serviceControl.getServiceDescriptor(
-                    DtvEngine.MASTER_LIST_INDEX, i);
-
-            /*
-             *  Ignore dummy IP channel and DVB cable VOD channel in master list.
-             *  Name for IP channel and DVB cable VOD are hardcoded in Middleware.
-             *         In cases when the name change, it's needed to update IWedia input service,
-             *         because statement will be incorrect.
-             */
-            if ((servDesc.getName().contains(IP_CHANNEL_NAME)) ||
-                    (servDesc.getName().contains(DVB_CAB_VOD_CHANNEL_NAME))) {
-                mLog.d("Skip service [" + servDesc.toString() + "]");
-                continue;
+    /**
+     * Loads channels from TvProvider in background and replaces channels read from snapshot
+     * if they differ.
+     */
+    private void reconcileSnapshot(final ChannelTable snapshot) {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        mLoadLatch = loaded;
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    ArrayList<ChannelDescriptor> channels = loadChannels(mInputId);
+                    if (isSameChannelList(snapshot, channels)) {
+                        mLog.d("[reconcileSnapshot][snapshot is up to date]");
+                        return;
+                    }
+                    mLog.i("[reconcileSnapshot][snapshot is stale, " + channels.size()
+                            + " channels in database]");
+                    synchronized (ChannelManager.this) {
+                        if (mAllChannels == snapshot) {
+                            publishChannels(channels);
+                        }
+                    }
+                } finally {
+                    loaded.countDown();
+                }
+                if (mAllChannels.isEmpty()) {
+                    try {
+                        refreshChannelList();
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                }
             }
+        }, "ChannelSnapshotReconciler").start();
+    }
 
-            mLog.d("Service [" + i + "] " + servDesc.toString());
-            formattedChannelNumber = String.format(Locale.ENGLISH, "%02d",
-                    displayNumber);
-            channels.add(new ChannelDescriptor(formattedChannelNumber, servDesc
-                    .getName(), servDesc.getMasterIndex(), type, servDesc.getServiceType()));
-            displayNumber++;
+    private static boolean isSameChannelList(List<ChannelDescriptor> first,
+            List<ChannelDescriptor> second) {
+        if (first.size() != second.size()) {
+            return false;
         }
-        print(channels);
-        // Save channels to TV provider database
-        storeChannels(mInputId, channels);
-        // Load channels to TIF memory
-        mAllChannels = loadChannels(mInputId);
+        for (int i = 0; i < first.size(); i++) {
+            ChannelDescriptor channel = first.get(i);
+            if (channel.getChannelId() != second.get(i).getChannelId()
+                    || !channel.hasSameContent(second.get(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public ArrayList<ChannelDescriptor> getAllDatabaseChannels() {
-        mLog.d("[getAllDatabaseChannels]");
-        return mAllChannels;
-    }
+    /**
+     * Collects changed channel rows and schedules their re-read
+     */
+    private final ContentObserver mChannelObserver = new ContentObserver(null) {
 
-    public int getDtvChannelListSize(Routes routes) throws RemoteException {
-        mLog.d("[getDtvChannelListSize]");
-        return mDvbChannelCounter;
-    }
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
 
-    private void print(List<ChannelDescriptor> channels) {
-        mLog.d("[print]");
-        for (ChannelDescriptor channel : channels) {
-            mLog.d(channel.toString());
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long id = getChannelIdFromUri(uri);
+            synchronized (ChannelManager.this) {
+                if (id == ChannelDescriptor.EC_NOT_AVAILABLE) {
+                    mReloadAllChannels = true;
+                } else {
+                    mChangedChannelIds.add(id);
+                }
+                if (mChannelChangesScheduled) {
+                    return;
+                }
+                mChannelChangesScheduled = true;
+            }
+            scheduleChannelChanges();
         }
+    };
+
+    private void scheduleChannelChanges() {
+        scheduleIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                applyChannelChanges();
+            }
+        }, CHANNEL_CHANGE_DELAY_MS);
     }
 
-    // Auto Scan for cab and ter routes
-    public void startAutoScan(final IScanCallback callback, SourceType type) throws RemoteException {
-        mLog.d("[startAutoScan]");
-        if ((type == SourceType.CAB)
-                && (mDtvEngine.getRouteManager().getCabRoute().getInstallRoute() != null)) {
-            mLog.i("[startScan][Starting scan for cable frontend]");
-            RouteInstallSettings settings = new RouteInstallSettings();
-            settings.setFrontendType(RouteFrontendType.CAB);
-            int cabInstallRoute = mDtvEngine.getRouteManager().getCabRoute().getInstallRouteID();
-            mBroadcastRouteControl.configureInstallRoute(cabInstallRoute, settings);
-            mScanControl.autoScan(cabInstallRoute);
+    /**
+     * Gets channel ID from channel row uri
+     *
+     * @return Channel ID, or {@link ChannelDescriptor#EC_NOT_AVAILABLE} if uri is not a
+     *         channel row uri
+     */
+    private static long getChannelIdFromUri(Uri uri) {
+        if (uri == null) {
+            return ChannelDescriptor.EC_NOT_AVAILABLE;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !"channel".equals(segments.get(0))) {
+            return ChannelDescriptor.EC_NOT_AVAILABLE;
         }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return ChannelDescriptor.EC_NOT_AVAILABLE;
+        }
+    }
 
-        if ((type == SourceType.TER)
-                && (mDtvEngine.getRouteManager().getCabRoute().getInstallRoute() != null)) {
-            mLog.i("[startScan][Starting scan for terrestrial frontend]");
-            RouteInstallSettings settings = new RouteInstallSettings();
-            settings.setFrontendType(RouteFrontendType.TER);
-            int terInstallRoute = mDtvEngine.getRouteManager().getTerRoute().getInstallRouteID();
-            mBroadcastRouteControl.configureInstallRoute(terInstallRoute, settings);
-            mScanControl.autoScan(terInstallRoute);
+    /**
+     * Re-reads changed channel rows and publishes patched snapshot. Falls back to full reload
+     * for changes without row uri or when too many rows changed. Runs on ingest executor.
+     */
+    private void applyChannelChanges() {
+        HashSet<Long> ids;
+        boolean reloadAll;
+        synchronized (this) {
+            if (mOwnWritesInFlight > 0) {
+                // Rows of running write are not known yet
+                scheduleChannelChanges();
+                return;
+            }
+            ids = mChangedChannelIds;
+            mChangedChannelIds = new HashSet<Long>();
+            reloadAll = mReloadAllChannels;
+            mReloadAllChannels = false;
+            mChannelChangesScheduled = false;
+            removeOwnWrites(ids);
+        }
+        // Patching first page would drop channels still being loaded
+        awaitChannelsLoaded();
+        if (reloadAll || ids.size() > MAX_PATCHED_CHANNELS) {
+            mLog.d("[applyChannelChanges][reloading all channels]");
+            publishChannels(loadChannels(mInputId));
+            return;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        StringBuilder selection = new StringBuilder(Channels._ID).append(" IN (");
+        String[] selectionArgs = new String[ids.size()];
+        int i = 0;
+        for (Long id : ids) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i++] = String.valueOf(id);
+        }
+        selection.append(')');
+        Cursor cursor = queryChannels(mInputId, selection.toString(), selectionArgs);
+        if (cursor == null) {
+            return;
+        }
+        // Rows not returned are deleted
+        HashMap<Long, ChannelDescriptor> changed = new HashMap<Long, ChannelDescriptor>();
+        for (Long id : ids) {
+            changed.put(id, null);
+        }
+        ChannelDescriptor.CursorIndices indices = new ChannelDescriptor.CursorIndices(cursor);
+        while (cursor.moveToNext()) {
+            ChannelDescriptor channel = new ChannelDescriptor(cursor, indices);
+            changed.put(channel.getChannelId(), channel);
+        }
+        cursor.close();
+        mLog.d("[applyChannelChanges][" + changed.size() + " rows]");
+        synchronized (this) {
+            ArrayList<ChannelDescriptor> channels = new ArrayList<ChannelDescriptor>(
+                    mAllChannels.size() + changed.size());
+            for (ChannelDescriptor channel : mAllChannels) {
+                if (!changed.containsKey(channel.getChannelId())) {
+                    channels.add(channel);
+                    continue;
+                }
+                ChannelDescriptor updated = changed.remove(channel.getChannelId());
+                if (updated != null) {
+                    channels.add(updated);
+                }
+            }
+            for (ChannelDescriptor added : changed.values()) {
+                if (added != null) {
+                    channels.add(added);
+                }
+            }
+            // Added and renumbered rows have to move to their place
+            Collections.sort(channels, CHANNEL_ORDER);
+            publishChannels(channels);
         }
+    }
 
-        if ((type == SourceType.SAT)
-                && (mDtvEngine.getRouteManager().getCabRoute().getInstallRoute() != null)) {
-            mLog.i("[startScan][Starting scan for satelite frontend]");
-            RouteInstallSettings settings = new RouteInstallSettings();
-            settings.setFrontendType(RouteFrontendType.SAT);
-            int satInstallRoute = mDtvEngine.getRouteManager().getSatRoute().getInstallRouteID();
-            mBroadcastRouteControl.configureInstallRoute(satInstallRoute, settings);
-            mScanControl.autoScan(satInstallRoute);
+    private ArrayList<ChannelDescriptor> loadChannels(String inputId) {
+        mLog.d("[loadChannels]");
+        ArrayList<ChannelDescriptor> ret = new ArrayList<ChannelDescriptor>();
+        Cursor cursor = queryChannels(inputId);
+        if (cursor == null) {
+            return ret;
         }
+        ChannelDescriptor.CursorIndices indices = new ChannelDescriptor.CursorIndices(cursor);
+        ret.ensureCapacity(cursor.getCount());
+        while (cursor.moveToNext()) {
+            ret.add(new ChannelDescriptor(cursor, indices));
+        }
+        cursor.close();
+        return ret;
     }
 
+    /**
+     * Loads first page of channels and publishes it right away, rest of channels is loaded
+     * page by page in background and published when complete.
+     *
+     * @return Total number of channels
+     */
+    private int loadChannelsPaged(String inputId) {
+        mLog.d("[loadChannelsPaged]");
+        final Cursor cursor = queryChannels(inputId);
+        if (cursor == null) {
+            publishChannels(new ArrayList<ChannelDescriptor>());
+            return 0;
+        }
+        final int count = cursor.getCount();
+        final ChannelDescriptor.CursorIndices indices = new ChannelDescriptor.CursorIndices(
+                cursor);
+        final ArrayList<ChannelDescriptor> firstPage = new ArrayList<ChannelDescriptor>(
+                Math.min(count, LOAD_PAGE_SIZE));
+        boolean more = readPage(cursor, indices, firstPage);
+        final ChannelTable firstTable = publishChannels(firstPage);
+        if (!more) {
+            cursor.close();
+            return count;
+        }
+        mLog.i("[loadChannelsPaged][first " + firstPage.size() + " of " + count + " loaded]");
+        final CountDownLatch loaded = new CountDownLatch(1);
+        mLoadLatch = loaded;
+        new Thread(new Runnable() {
 
-    public void startManualScanTer(int frequency) throws RemoteException {
-        mLog.i("[startScan] Started scan for terrestrial frontend!");
-        RouteInstallSettings settings = new RouteInstallSettings();
-        settings.setFrontendType(RouteFrontendType.TER);
-        int terInstallRoute = mDtvEngine.getRouteManager().getTerRoute().getInstallRouteID();
-        mBroadcastRouteControl.configureInstallRoute(terInstallRoute, settings);
-        mScanControl.setFrequency(frequency * 1000); // in kHz
-        mScanControl.manualScan(terInstallRoute);
+            @Override
+            public void run() {
+                try {
+                    ArrayList<ChannelDescriptor> all = new ArrayList<ChannelDescriptor>(count);
+                    all.addAll(firstPage);
+                    while (readPage(cursor, indices, all)) {
+                    }
+                    synchronized (ChannelManager.this) {
+                        // List may already be replaced by refresh
+                        if (mAllChannels == firstTable) {
+                            publishChannels(all);
+                        }
+                    }
+                    mLog.i("[loadChannelsPaged][all " + all.size() + " loaded]");
+                } finally {
+                    cursor.close();
+                    loaded.countDown();
+                }
+            }
+        }, "ChannelLoader").start();
+        return count;
     }
 
-    public void startManualScanCab(int frequency, String modulation, String symbolRate) throws RemoteException {
-        mLog.i("[startScan] Started scan for cable frontend!");
-        RouteInstallSettings settings = new RouteInstallSettings();
-        settings.setFrontendType(RouteFrontendType.CAB);
-        int cabInstallRoute = mDtvEngine.getRouteManager().getCabRoute().getInstallRouteID();
-        mBroadcastRouteControl.configureInstallRoute(cabInstallRoute, settings);
-        mScanControl.setModulation(Modulation.MODULATION_QAM256);
-        mScanControl.setSymbolRate(6900);
-        mScanControl.setFrequency(frequency);
-        mScanControl.manualScan(cabInstallRoute);
+    /**
+     * Reads up to {@link #LOAD_PAGE_SIZE} channels from cursor
+     *
+     * @return True if there are more rows to read
+     */
+    private boolean readPage(Cursor cursor, ChannelDescriptor.CursorIndices indices,
+            List<ChannelDescriptor> channels) {
+        for (int i = 0; i < LOAD_PAGE_SIZE; i++) {
+            if (!cursor.moveToNext()) {
+                return false;
+            }
+            channels.add(new ChannelDescriptor(cursor, indices));
+        }
+        return !cursor.isLast();
     }
 
-    public void startManualScanSat(int frequency, Modulation modulation, Polarization polarization, int symbolrate, FecType fec) throws RemoteException {
-        mLog.i("[startScan] Started scan for satelite frontend!");
-        RouteInstallSettings settings = new RouteInstallSettings();
-        settings.setFrontendType(RouteFrontendType.SAT);
-        int satInstallRoute = mDtvEngine.getRouteManager().getSatRoute().getInstallRouteID();
-        mBroadcastRouteControl.configureInstallRoute(satInstallRoute, settings);
-        mScanControl.setModulation(modulation);
-        mScanControl.setFrequency(frequency);
-	mScanControl.setFecType(fec);
-        mScanControl.setSymbolRate(symbolrate);
-	mScanControl.setPolarization(polarization);
-        mScanControl.manualScan(satInstallRoute);
+    /**
+     * Waits for background channel loading to complete
+     */
+    private void awaitChannelsLoaded() {
+        CountDownLatch loaded = mLoadLatch;
+        if (loaded == null) {
+            return;
+        }
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public void stopScan() throws RemoteException {
-        mLog.d("[stopScan]");
-        mScanControl.abortScan(mRouteManager.getMainInstallRouteId());
+    /**
+     * Inserts channels into TvProvider database in chunked batch transactions
+     *
+     * @param inputId  this TV input service
+     * @param channels to be inserted into a TVProvider database
+     */
+    private void storeChannels(String inputId, List<ChannelDescriptor> channels) {
+        mLog.d("[storeChannels][" + channels.size() + "]");
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+                STORE_BATCH_SIZE);
+        for (int start = 0; start < channels.size(); start += STORE_BATCH_SIZE) {
+            int end = Math.min(start + STORE_BATCH_SIZE, channels.size());
+            operations.clear();
+            for (int i = start; i < end; i++) {
+                operations.add(ContentProviderOperation.newInsert(Channels.CONTENT_URI)
+                        .withValues(channels.get(i).getContentValues(inputId)).build());
+            }
+            ContentProviderResult[] results = applyBatch(operations);
+            if (results == null) {
+                continue;
+            }
+            for (int i = 0; i < results.length; i++) {
+                ChannelDescriptor channel = channels.get(start + i);
+                if (results[i].uri == null) {
+                    mLog.e("[storeChannels][error adding channel to the database][" + channel
+                            + "]");
+                } else {
+                    channel.setId(ContentUris.parseId(results[i].uri));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies operations in chunked batch transactions
+     */
+    private void applyOperations(List<ContentProviderOperation> operations) {
+        for (int start = 0; start < operations.size(); start += STORE_BATCH_SIZE) {
+            int end = Math.min(start + STORE_BATCH_SIZE, operations.size());
+            applyBatch(new ArrayList<ContentProviderOperation>(operations.subList(start, end)));
+        }
+    }
+
+    /**
+     * Applies operations in one TvProvider transaction and records its latency
+     *
+     * @return Results of operations, or null if transaction failed
+     */
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) {
+        long startTime = SystemClock.elapsedRealtime();
+        ContentProviderResult[] results = null;
+        synchronized (this) {
+            mOwnWritesInFlight++;
+        }
+        try {
+            results = mContext.getContentResolver().applyBatch(TvContract.AUTHORITY, operations);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return null;
+        } catch (OperationApplicationException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            synchronized (this) {
+                mOwnWritesInFlight--;
+                if (results != null) {
+                    addOwnWrites(operations, results);
+                }
+            }
+        }
+        long latency = SystemClock.elapsedRealtime() - startTime;
+        synchronized (this) {
+            mStoreBatchCount++;
+            mStoreTotalLatency += latency;
+        }
+        mLog.i("[applyBatch][" + operations.size() + " operations][" + latency + " ms]");
+        return results;
+    }
+
+    /**
+     * Remembers channel rows written by batch. Caller must hold manager lock.
+     */
+    private void addOwnWrites(List<ContentProviderOperation> operations,
+            ContentProviderResult[] results) {
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < operations.size(); i++) {
+            long id = getChannelIdFromUri(operations.get(i).getUri());
+            if (id == ChannelDescriptor.EC_NOT_AVAILABLE && i < results.length) {
+                // Row of inserted channel
+                id = getChannelIdFromUri(results[i].uri);
+            }
+            if (id != ChannelDescriptor.EC_NOT_AVAILABLE) {
+                mOwnWrites.put(id, now);
+            }
+        }
+    }
+
+    /**
+     * Removes changed rows that were written by this manager, each write accounts for one
+     * notification. Caller must hold manager lock.
+     */
+    private void removeOwnWrites(HashSet<Long> ids) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Map.Entry<Long, Long>> iterator = mOwnWrites.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> write = iterator.next();
+            if (now - write.getValue() > OWN_WRITE_WINDOW_MS) {
+                iterator.remove();
+            } else if (ids.remove(write.getKey())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Brings channels in TvProvider database in line with given list. Rows of unchanged
+     * channels, their IDs and their programs are kept, changed rows are updated in place.
+     */
+    private void syncChannels(String inputId, List<ChannelDescriptor> channels) {
+        HashMap<String, ChannelDescriptor> stored = loadStoredChannels(inputId);
+        upsertChannels(inputId, channels, stored);
+        deleteChannels(stored.values());
+    }
+
+    /**
+     * Loads channels from TvProvider database keyed by service key
+     */
+    private HashMap<String, ChannelDescriptor> loadStoredChannels(String inputId) {
+        HashMap<String, ChannelDescriptor> stored = new HashMap<String, ChannelDescriptor>();
+        for (ChannelDescriptor channel : loadChannels(inputId)) {
+            if (stored.put(channel.getServiceKey(), channel) != null) {
+                // Duplicate row, keep one of them and let the other be deleted
+                stored.put("dup:" + channel.getChannelId(), channel);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Updates changed and inserts new channels. Matched channels are removed from stored ones.
+     */
+    private void upsertChannels(String inputId, List<ChannelDescriptor> channels,
+            HashMap<String, ChannelDescriptor> stored) {
+        List<ChannelDescriptor> inserted = new ArrayList<ChannelDescriptor>();
+        List<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int unchanged = 0;
+        for (ChannelDescriptor channel : channels) {
+            ChannelDescriptor old = stored.remove(channel.getServiceKey());
+            if (old == null) {
+                inserted.add(channel);
+                continue;
+            }
+            channel.setId(old.getChannelId());
+            if (channel.hasSameContent(old)) {
+                unchanged++;
+                continue;
+            }
+            operations.add(ContentProviderOperation
+                    .newUpdate(TvContract.buildChannelUri(old.getChannelId()))
+                    .withValues(channel.getContentValues(inputId)).build());
+        }
+        mLog.i("[upsertChannels][unchanged: " + unchanged + ", updated: " + operations.size()
+                + ", inserted: " + inserted.size() + "]");
+        applyOperations(operations);
+        storeChannels(inputId, inserted);
+    }
+
+    /**
+     * Deletes channels and their programs
+     */
+    private void deleteChannels(Collection<ChannelDescriptor> channels) {
+        mLog.i("[deleteChannels][" + channels.size() + "]");
+        List<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ChannelDescriptor old : channels) {
+            operations.add(ContentProviderOperation
+                    .newDelete(TvContract.buildProgramsUriForChannel(old.getChannelId())).build());
+            operations.add(ContentProviderOperation
+                    .newDelete(TvContract.buildChannelUri(old.getChannelId())).build());
+        }
+        applyOperations(operations);
+    }
+
+    /**
+     * Rewrites rows of channels that are already in database, channels without row are
+     * ignored
+     */
+    private void updateChannels(List<ChannelDescriptor> channels) {
+        List<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ChannelDescriptor channel : channels) {
+            if (channel.getChannelId() > 0) {
+                operations.add(ContentProviderOperation
+                        .newUpdate(TvContract.buildChannelUri(channel.getChannelId()))
+                        .withValues(channel.getContentValues(mInputId)).build());
+            }
+        }
+        applyOperations(operations);
+    }
+
+    /**
+     * Gets average duration in milliseconds of channel batch transaction
+     */
+    public synchronized long getAverageStoreBatchLatency() {
+        return mStoreBatchCount == 0 ? 0 : mStoreTotalLatency / mStoreBatchCount;
+    }
+
+    public void refreshChannelList(/*Routes routes*/) throws RemoteException {
+        mLog.d("[refreshChannelList]");
+        // Source type of main frontend is used for services MW does not give one for
+        SourceType type = mRouteManager.getSourceType();
+        // Collect DVB channels found by scan
+        long startTime = SystemClock.elapsedRealtime();
+        List<ChannelDescriptor> channels = new ArrayList<ChannelDescriptor>();
+        ServiceDeduplicator deduplicator = new ServiceDeduplicator();
+        try {
+            fetchChannels(0, getChannelListSize(), type, channels, deduplicator, null);
+        } catch (InterruptedException e) {
+            // Partial list would delete channels that were not fetched
+            mLog.w("[refreshChannelList][interrupted, channel list is not refreshed]");
+            Thread.currentThread().interrupt();
+            return;
+        }
+        mLog.i("[refreshChannelList][" + channels.size() + " channels fetched in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms][duplicates: "
+                + deduplicator.getDuplicateCount() + "]");
+        setServiceAlternates(deduplicator.getAlternates());
+        print(channels);
+        // Apply only differences to TV provider database
+        syncChannels(mInputId, channels);
+        // Load channels to TIF memory
+        publishChannels(loadChannels(mInputId));
+    }
+
+    /**
+     * Sets maximum number of service descriptor requests sent to MW at the same time
+     */
+    public synchronized void setDescriptorFetchConcurrency(int concurrency) {
+        mDescriptorFetchConcurrency = Math.max(1, concurrency);
+        // Core size may never exceed maximum size
+        if (mDescriptorFetchConcurrency > mFetchExecutor.getMaximumPoolSize()) {
+            mFetchExecutor.setMaximumPoolSize(mDescriptorFetchConcurrency);
+            mFetchExecutor.setCorePoolSize(mDescriptorFetchConcurrency);
+        } else {
+            mFetchExecutor.setCorePoolSize(mDescriptorFetchConcurrency);
+            mFetchExecutor.setMaximumPoolSize(mDescriptorFetchConcurrency);
+        }
+    }
+
+    /**
+     * Fetches service descriptors of master list on worker pool and converts them to channels
+     * in master list order as soon as they arrive. Channels are appended to given list and
+     * numbered after channels already in it. Given source type is used for services MW does
+     * not report source type for.
+     *
+     * @param from First master list index to fetch
+     * @param to   Master list index after last one to fetch
+     */
+    private void fetchChannels(int from, int to, SourceType type,
+            List<ChannelDescriptor> channels) throws RemoteException, InterruptedException {
+        fetchChannels(from, to, type, channels, null, null);
+    }
+
+    /**
+     * Fetches channels like {@link #fetchChannels(int, int, SourceType, List)}, keeping only
+     * copy with best scan signal of services that are already in list or are fetched more
+     * than once. Better copy takes list position, number and database row of worse one.
+     *
+     * @param deduplicator Services already in list, may be null if duplicates are kept
+     * @param replaced     Receives channels that replaced worse copies, may be null
+     * @throws InterruptedException If fetching thread is interrupted or manager is released.
+     *                              Given list then holds only part of channels.
+     */
+    private void fetchChannels(int from, int to, SourceType type,
+            List<ChannelDescriptor> channels, ServiceDeduplicator deduplicator,
+            List<ChannelDescriptor> replaced) throws RemoteException, InterruptedException {
+        final ServiceDescriptorCache cache = mDtvEngine.getServiceDescriptorCache();
+        int concurrency;
+        synchronized (this) {
+            concurrency = mDescriptorFetchConcurrency;
+        }
+        // Keep a few requests queued so workers do not idle while results are converted
+        int window = concurrency * 2;
+        ArrayDeque<Future<ServiceDescriptor>> pending = new ArrayDeque<Future<ServiceDescriptor>>(
+                window);
+        int next = from;
+        try {
+            while (next < to || !pending.isEmpty()) {
+                while (next < to && pending.size() < window) {
+                    final int index = next++;
+                    pending.add(mFetchExecutor.submit(new Callable<ServiceDescriptor>() {
+
+                        @Override
+                        public ServiceDescriptor call() throws RemoteException {
+                            return cache.get(index);
+                        }
+                    }));
+                }
+                ServiceDescriptor servDesc = pending.poll().get();
+                /*
+                 *  Ignore dummy IP channel and DVB cable VOD channel in master list.
+                 *  Name for IP channel and DVB cable VOD are hardcoded in Middleware.
+                 *         In cases when the name change, it's needed to update IWedia input
+                 *         service, because statement will be incorrect.
+                 */
+                String name = servDesc.getName();
+                if (name.contains(IP_CHANNEL_NAME) || name.contains(DVB_CAB_VOD_CHANNEL_NAME)) {
+                    mLog.d("Skip service [" + servDesc + "]");
+                    continue;
+                }
+                SourceType sourceType = servDesc.getSourceType();
+                if (sourceType == null || sourceType == SourceType.UNDEFINED) {
+                    sourceType = type;
+                }
+                ChannelDescriptor channel = new ChannelDescriptor(
+                        formatDisplayNumber(channels.size() + 1), name, servDesc.getMasterIndex(),
+                        sourceType, servDesc.getServiceType(), servDesc.getONID(),
+                        servDesc.getTSID(), servDesc.getServiceId());
+                if (deduplicator != null) {
+                    int position = deduplicator.add(channel,
+                            mScanSignals.getScore(servDesc.getFrequency()), channels.size());
+                    if (position == ServiceDeduplicator.DROP) {
+                        mLog.d("[fetchChannels][duplicate][" + servDesc + "]");
+                        continue;
+                    }
+                    if (position != ServiceDeduplicator.APPEND) {
+                        ChannelDescriptor worse = channels.get(position);
+                        channel = new ChannelDescriptor(worse.getDisplayNumber(), name,
+                                servDesc.getMasterIndex(), sourceType, servDesc.getServiceType(),
+                                servDesc.getONID(), servDesc.getTSID(), servDesc.getServiceId());
+                        channel.setId(worse.getChannelId());
+                        channels.set(position, channel);
+                        if (replaced != null) {
+                            replaced.add(channel);
+                        }
+                        continue;
+                    }
+                }
+                channels.add(channel);
+            }
+        } catch (RejectedExecutionException e) {
+            // Fetch pool is shut down, fetch is abandoned like on interrupt
+            mLog.w("[fetchChannels][channel manager is released]");
+            throw new InterruptedException("channel manager is released");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // Requests of abandoned fetch are not left to other fetches' workers
+            for (Future<ServiceDescriptor> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Starts writing services found by scan into TvProvider database while scan is running
+     *
+     * @param type Source type of scanned frontend
+     */
+    private void startIngest(final SourceType type) {
+        mLog.d("[startIngest][" + type + "]");
+        // Master list is rebuilt by scan
+        mDtvEngine.getServiceDescriptorCache().invalidateAll();
+        synchronized (this) {
+            if (mIngestActive) {
+                // Concurrent scans share one ingest of master list
+                return;
+            }
+            mIngestActive = true;
+            mIngestScheduled = false;
+        }
+        mScanSignals.clear();
+        runIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                mIngestType = type;
+                mIngestChannels = new ArrayList<ChannelDescriptor>();
+                mIngestDeduplicator = new ServiceDeduplicator();
+                mIngestStored = loadStoredChannels(mInputId);
+                mIngestNextIndex = 0;
+            }
+        });
+    }
+
+    /**
+     * Called by scan callback for every service found. Services are written in small batches,
+     * at most {@link #INGEST_DELAY_MS} after they were found.
+     */
+    public void onServiceDiscovered(int routeId) {
+        ScanJob job = getScanJob(routeId);
+        if (job != null) {
+            job.onServiceFound();
+        }
+        synchronized (this) {
+            if (!mIngestActive || mIngestScheduled) {
+                return;
+            }
+            mIngestScheduled = true;
+        }
+        scheduleIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (ChannelManager.this) {
+                    mIngestScheduled = false;
+                }
+                ingestNewServices();
+            }
+        }, INGEST_DELAY_MS);
+    }
+
+    /**
+     * Writes services added to master list since last ingest. Runs on ingest executor.
+     */
+    private void ingestNewServices() {
+        if (mIngestChannels == null) {
+            return;
+        }
+        try {
+            int count = getChannelListSize();
+            if (count <= mIngestNextIndex) {
+                return;
+            }
+            int first = mIngestChannels.size();
+            List<ChannelDescriptor> replaced = new ArrayList<ChannelDescriptor>();
+            fetchChannels(mIngestNextIndex, count, mIngestType, mIngestChannels,
+                    mIngestDeduplicator, replaced);
+            mIngestNextIndex = count;
+            upsertChannels(mInputId, mIngestChannels.subList(first, mIngestChannels.size()),
+                    mIngestStored);
+            // Better copies of services written by previous batches
+            updateChannels(replaced);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            mLog.w("[ingestNewServices][interrupted, services are not written]");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ends ingest when scan is over. Services that are not yet written are written, and if scan
+     * completed, channels that are not in master list any more are deleted. Blocks until
+     * database is updated.
+     *
+     * @param completed True if scan completed, false if it was aborted
+     * @return False if there was no ingest running
+     */
+    private boolean finishIngest(final boolean completed) {
+        synchronized (this) {
+            if (!mIngestActive) {
+                return false;
+            }
+            mIngestActive = false;
+        }
+        mLog.d("[finishIngest][completed: " + completed + "]");
+        Future<?> result;
+        try {
+            result = mIngestExecutor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws RemoteException {
+                    if (completed && getChannelListSize() < mIngestNextIndex) {
+                        // Master list was rebuilt, services written so far can not be trusted
+                        mLog.w("[finishIngest][master list shrank, refreshing whole list]");
+                        mIngestChannels = null;
+                        refreshChannelList();
+                        return null;
+                    }
+                    ingestNewServices();
+                    HashSet<String> resumed;
+                    synchronized (ChannelManager.this) {
+                        resumed = mResumedServiceKeys;
+                        mResumedServiceKeys = null;
+                    }
+                    if (completed) {
+                        if (resumed != null) {
+                            // Found before scan job was resumed
+                            mIngestStored.keySet().removeAll(resumed);
+                        }
+                        deleteChannels(mIngestStored.values());
+                    }
+                    mLog.i("[finishIngest][duplicates: "
+                            + mIngestDeduplicator.getDuplicateCount() + "]");
+                    setServiceAlternates(mIngestDeduplicator.getAlternates());
+                    mIngestChannels = null;
+                    mIngestStored = null;
+                    mIngestDeduplicator = null;
+                    publishChannels(loadChannels(mInputId));
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mLog.w("[finishIngest][channel manager is released]");
+            return true;
+        }
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * Applies service list update signalled by MW for route playing given channel. Only
+     * services on the same transport stream and services appended to master list are re-read
+     * and written, whole list is refreshed only if services were removed from master list.
+     *
+     * @param current Channel playing on route the update came for, may be null
+     */
+    public void applyServiceListUpdate(final ServiceListUpdateData data,
+            final ChannelDescriptor current) {
+        if (!data.getExistingServicePropertiesUpdated() && !data.getServiceListStatusChanged()) {
+            return;
+        }
+        runIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    patchServiceList(data, current);
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    mLog.w("[applyServiceListUpdate][interrupted, update is not applied]");
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private void patchServiceList(ServiceListUpdateData data, ChannelDescriptor current)
+            throws RemoteException, InterruptedException {
+        awaitChannelsLoaded();
+        List<ChannelDescriptor> channels = mAllChannels;
+        int count = getChannelListSize();
+        int lastIndex = -1;
+        for (ChannelDescriptor channel : channels) {
+            lastIndex = Math.max(lastIndex, channel.getServiceId());
+        }
+        ServiceDescriptorCache cache = mDtvEngine.getServiceDescriptorCache();
+        if (count <= lastIndex) {
+            mLog.i("[patchServiceList][services removed, refreshing whole list]");
+            cache.invalidateAll();
+            refreshChannelList();
+            return;
+        }
+
+        // Re-read services on transport stream of current channel
+        HashMap<String, ChannelDescriptor> stored = new HashMap<String, ChannelDescriptor>();
+        // Better copies that already replaced worse ones in database
+        List<ChannelDescriptor> rewritten = new ArrayList<ChannelDescriptor>();
+        List<ChannelDescriptor> patched = new ArrayList<ChannelDescriptor>();
+        if (data.getExistingServicePropertiesUpdated() && current != null) {
+            mTransponderCache.invalidateTransportStream(current.getOriginalNetworkId(),
+                    current.getTransportStreamId());
+            mTransponderCache.save();
+            for (ChannelDescriptor channel : channels) {
+                if (channel.getSourceType() != current.getSourceType()
+                        || channel.getOriginalNetworkId() != current.getOriginalNetworkId()
+                        || channel.getTransportStreamId() != current.getTransportStreamId()) {
+                    continue;
+                }
+                cache.invalidate(channel.getServiceId());
+                ServiceDescriptor servDesc = cache.get(channel.getServiceId());
+                ChannelDescriptor updated = new ChannelDescriptor(channel.getDisplayNumber(),
+                        servDesc.getName(), servDesc.getMasterIndex(), channel.getSourceType(),
+                        servDesc.getServiceType(), servDesc.getONID(), servDesc.getTSID(),
+                        servDesc.getServiceId());
+                // Keep row of channel even if its DVB identity changed
+                stored.put(updated.getServiceKey(), channel);
+                patched.add(updated);
+            }
+        }
+
+        // Services appended to master list
+        if (data.getServiceListStatusChanged() && count > lastIndex + 1) {
+            SourceType type = current != null ? current.getSourceType()
+                    : mRouteManager.getSourceType();
+            List<ChannelDescriptor> added = new ArrayList<ChannelDescriptor>(channels);
+            for (int i = lastIndex + 1; i < count; i++) {
+                cache.invalidate(i);
+            }
+            ServiceDeduplicator deduplicator = new ServiceDeduplicator();
+            deduplicator.addExisting(channels);
+            List<ChannelDescriptor> replaced = new ArrayList<ChannelDescriptor>();
+            fetchChannels(lastIndex + 1, count, type, added, deduplicator, replaced);
+            patched.addAll(added.subList(channels.size(), added.size()));
+            updateChannels(replaced);
+            for (ChannelDescriptor channel : replaced) {
+                if (channel.getChannelId() > 0) {
+                    rewritten.add(channel);
+                }
+            }
+            addServiceAlternates(deduplicator.getAlternates());
+        }
+        mLog.i("[patchServiceList][" + patched.size() + " services re-read]");
+        if (patched.isEmpty() && rewritten.isEmpty()) {
+            return;
+        }
+        upsertChannels(mInputId, patched, stored);
+
+        // Patch in-memory channel list with written rows
+        HashMap<Long, ChannelDescriptor> byId = new HashMap<Long, ChannelDescriptor>();
+        for (ChannelDescriptor channel : rewritten) {
+            byId.put(channel.getChannelId(), channel);
+        }
+        for (ChannelDescriptor channel : patched) {
+            byId.put(channel.getChannelId(), channel);
+        }
+        synchronized (this) {
+            ArrayList<ChannelDescriptor> result = new ArrayList<ChannelDescriptor>(
+                    mAllChannels.size() + byId.size());
+            for (ChannelDescriptor channel : mAllChannels) {
+                ChannelDescriptor updated = byId.remove(channel.getChannelId());
+                result.add(updated != null ? updated : channel);
+            }
+            result.addAll(byId.values());
+            Collections.sort(result, CHANNEL_ORDER);
+            publishChannels(result);
+        }
+    }
+
+    /**
+     * Converts display number the way SQLite CAST AS INTEGER does: leading integer, 0 if none.
+     */
+    private static long castToInteger(String number) {
+        if (number == null) {
+            return 0;
+        }
+        int i = 0;
+        int length = number.length();
+        while (i < length && Character.isWhitespace(number.charAt(i))) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < length && (number.charAt(i) == '-' || number.charAt(i) == '+')) {
+            negative = number.charAt(i) == '-';
+            i++;
+        }
+        long value = 0;
+        while (i < length && number.charAt(i) >= '0' && number.charAt(i) <= '9'
+                && value < Long.MAX_VALUE / 10) {
+            value = value * 10 + (number.charAt(i) - '0');
+            i++;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Formats channel number in "01" format
+     */
+    private static String formatDisplayNumber(int number) {
+        return number < 10 ? "0" + number : Integer.toString(number);
+    }
+
+    public List<ChannelDescriptor> getAllDatabaseChannels() {
+        mLog.d("[getAllDatabaseChannels]");
+        return mAllChannels;
+    }
+
+    public int getDtvChannelListSize(Routes routes) throws RemoteException {
+        mLog.d("[getDtvChannelListSize]");
+        return mDvbChannelCounter;
+    }
+
+    private void print(List<ChannelDescriptor> channels) {
+        mLog.d("[print]");
+        for (ChannelDescriptor channel : channels) {
+            mLog.d(channel.toString());
+        }
+    }
+
+    /**
+     * Leases frontend of install route for scan of given source type and configures install
+     * route for it.
+     *
+     * @return Install route ID, or {@link Routes#kINVALID_ROUTE} if there is no route for
+     *         source type or its frontend is busy
+     */
+    private int prepareScan(SourceType type) throws RemoteException {
+        Routes routes = mRouteManager.getRouteByServiceType(type);
+        if (routes == null || routes.getInstallRoute() == null) {
+            mLog.e("[prepareScan][no install route for " + type + "]");
+            return Routes.kINVALID_ROUTE;
+        }
+        int routeId = routes.getInstallRouteID();
+        ScanRun scan = new ScanRun(routeId, type);
+        synchronized (this) {
+            ResourceArbiter arbiter = mDtvEngine.getResourceArbiter();
+            ScanRun previous = mScans.remove(routeId);
+            if (previous != null) {
+                arbiter.release(previous.mLease);
+            }
+            scan.mLease = arbiter.acquire(ChannelManager.class.getSimpleName(),
+                    ResourceArbiter.Priority.SCAN, routes.getInstallRoute(), scan);
+            if (scan.mLease == null) {
+                mLog.e("[prepareScan][frontend is busy][" + routes + "]");
+                return Routes.kINVALID_ROUTE;
+            }
+            mScans.put(routeId, scan);
+        }
+        RouteInstallSettings settings = new RouteInstallSettings();
+        settings.setFrontendType(RouteManager.getFrontendType(type));
+        mBroadcastRouteControl.configureInstallRoute(routeId, settings);
+        startIngest(type);
+        return routeId;
+    }
+
+    /**
+     * Called when scan on install route is finished. Starts auto scans that were waiting for
+     * frontend of finished scan. Scan job continues with its next transponder, its end is
+     * reported by {@link ScanJob.IScanJobListener#onJobFinished(List)}.
+     *
+     * @return True if no scan is running any more, always false for scan job
+     */
+    public boolean scanFinished(int routeId) {
+        mLog.d("[scanFinished][" + routeId + "]");
+        ScanJob job = getScanJob(routeId);
+        ArrayList<SourceType> queued;
+        if (!releaseScan(routeId)) {
+            // Aborted, or already handled for another registered scan callback
+            mLog.w("[scanFinished][no scan running on route " + routeId + "]");
+            return false;
+        }
+        if (job != null) {
+            job.transponderFinished();
+            recordTransponder(job.getCurrentTransponder(), job.getFirstServiceIndex());
+            scheduleNextTransponder(job);
+            return false;
+        }
+        synchronized (this) {
+            queued = new ArrayList<SourceType>(mQueuedAutoScans);
+            mQueuedAutoScans.clear();
+        }
+        for (SourceType type : queued) {
+            try {
+                if (!startAutoScan(null, type)) {
+                    synchronized (this) {
+                        mQueuedAutoScans.add(type);
+                    }
+                }
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+        synchronized (this) {
+            if (!mScans.isEmpty()) {
+                return false;
+            }
+            if (!mQueuedAutoScans.isEmpty()) {
+                mLog.e("[scanFinished][can not start queued scans " + mQueuedAutoScans + "]");
+                mQueuedAutoScans.clear();
+            }
+        }
+        mDtvEngine.getServiceDescriptorCache().invalidateAll();
+        return true;
+    }
+
+    /**
+     * Removes scan running on install route and releases its frontend
+     *
+     * @return False if no scan was running on route
+     */
+    private boolean releaseScan(int routeId) {
+        synchronized (this) {
+            ScanRun scan = mScans.remove(routeId);
+            if (scan == null) {
+                return false;
+            }
+            mDtvEngine.getResourceArbiter().release(scan.mLease);
+            return true;
+        }
+    }
+
+    /**
+     * Brings channel list up to date after scan finished. Only services not yet written while
+     * scan was running are fetched, whole list is refreshed if scan was not ingested.
+     */
+    public void refreshChannelListAfterScan() throws RemoteException {
+        if (!finishIngest(true)) {
+            refreshChannelList();
+        }
+    }
+
+    private synchronized void setServiceAlternates(Map<String, int[]> alternates) {
+        mServiceAlternates = alternates;
+    }
+
+    /**
+     * Adds alternates of services found after channel list was built
+     */
+    private synchronized void addServiceAlternates(Map<String, int[]> alternates) {
+        HashMap<String, int[]> merged = new HashMap<String, int[]>(mServiceAlternates);
+        for (Map.Entry<String, int[]> entry : alternates.entrySet()) {
+            int[] previous = merged.get(entry.getKey());
+            if (previous == null) {
+                merged.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            int[] serviceIds = Arrays.copyOf(previous, previous.length + entry.getValue().length);
+            System.arraycopy(entry.getValue(), 0, serviceIds, previous.length,
+                    entry.getValue().length);
+            merged.put(entry.getKey(), serviceIds);
+        }
+        mServiceAlternates = merged;
+    }
+
+    /**
+     * Gets other copy of channel service found on another transponder or frontend, to fall
+     * back to when channel can not be played
+     *
+     * @param attempt Number of alternates already tried, alternates are ordered best first
+     * @return Channel playing alternate copy, or null if there are no more alternates
+     */
+    public ChannelDescriptor getAlternateChannel(ChannelDescriptor channel, int attempt) {
+        int[] serviceIds;
+        synchronized (this) {
+            serviceIds = mServiceAlternates.get(channel.getServiceKey());
+        }
+        if (serviceIds == null || attempt >= serviceIds.length) {
+            return null;
+        }
+        return channel.withServiceId(serviceIds[attempt]);
+    }
+
+    /**
+     * Called by scan callback when scan on install route tunes to frequency
+     */
+    public void onScanFrequency(int routeId, int frequency) {
+        mScanSignals.setFrequency(routeId, frequency);
+    }
+
+    public void onSignalQuality(int routeId, int quality) {
+        mScanSignals.setQuality(routeId, quality);
+    }
+
+    public void onSignalStrength(int routeId, int strength) {
+        mScanSignals.setStrength(routeId, strength);
+    }
+
+    /**
+     * Called by scan callback when tuner lock state changes
+     */
+    public void onTunerLocked(int routeId, boolean locked) {
+        ScanJob job = getScanJob(routeId);
+        if (job != null) {
+            job.onTunerLocked(locked);
+        }
+    }
+
+    /**
+     * Starts scan of transponder list. Transponders are scanned one after another, each
+     * on install route of its source type. If job with the same transponders was interrupted,
+     * it is resumed from its checkpoint. Running job is aborted, its checkpoint is kept. Job
+     * end is reported by {@link ScanJob.IScanJobListener#onJobFinished(List)}, after channel
+     * list is updated.
+     *
+     * @return False if another job was started at the same time
+     */
+    public boolean startScanJob(ScanJob job) throws RemoteException {
+        mLog.d("[startScanJob][" + job.getTransponders().size() + " transponders]");
+        boolean running;
+        synchronized (this) {
+            running = mScanJob != null;
+        }
+        if (running) {
+            // Scan job of setup that was closed, its scan callbacks do not arrive any more
+            mLog.w("[startScanJob][aborting running scan job]");
+            stopScan();
+        }
+        ScanJob resumed = mScanJobCheckpoint.read(job.getListener());
+        if (resumed != null && resumed.hasSameTransponders(job)) {
+            List<ScanJob.Transponder> done = resumed.getTransponders().subList(0,
+                    resumed.getResults().size());
+            mLog.i("[startScanJob][resuming after " + done.size() + " transponders]");
+            HashSet<String> serviceKeys = new HashSet<String>();
+            for (ScanJob.Transponder transponder : done) {
+                TransponderCache.Record record = mTransponderCache.get(transponder);
+                if (record != null) {
+                    serviceKeys.addAll(record.getServiceKeys());
+                }
+            }
+            resumed.setSkipUnchanged(job.isSkipUnchanged());
+            resumed.setAppendList(job.isAppendList());
+            job = resumed;
+            synchronized (this) {
+                mResumedServiceKeys = serviceKeys;
+            }
+        }
+        synchronized (this) {
+            if (mScanJob != null) {
+                mLog.e("[startScanJob][scan job is already running]");
+                return false;
+            }
+            mScanJob = job;
+            // Fresh list is built by first scanned transponder, the rest append to it. Resumed
+            // job appends to services of transponders scanned before it was interrupted.
+            mScanJobAppend = job.isAppendList() || job.hasScannedTransponder();
+        }
+        if (isSkippingUnchanged(job)) {
+            awaitChannelsLoaded();
+            HashSet<String> serviceKeys = new HashSet<String>();
+            for (ChannelDescriptor channel : mAllChannels) {
+                serviceKeys.add(channel.getServiceKey());
+            }
+            synchronized (this) {
+                mScanJobServiceKeys = serviceKeys;
+            }
+        }
+        scheduleNextTransponder(job);
+        return true;
+    }
+
+    /**
+     * Programs next transponder of scan job on scan job executor, off MW callback thread
+     */
+    private void scheduleNextTransponder(final ScanJob job) {
+        try {
+            mScanJobExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    startNextTransponder(job);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mLog.w("[scheduleNextTransponder][channel manager is released]");
+        }
+    }
+
+    private synchronized boolean isScanJobRunning(ScanJob job) {
+        return mScanJob == job;
+    }
+
+    /**
+     * Checks if job skips unchanged transponders. Only jobs that keep master list can, services
+     * of skipped transponder would be dropped when list is rebuilt.
+     */
+    private static boolean isSkippingUnchanged(ScanJob job) {
+        return job.isSkipUnchanged() && job.isAppendList();
+    }
+
+    /**
+     * Programs next transponder of scan job, skipping transponders that can not be started.
+     * When there are no transponders left, channel list is updated and job is finished. Runs
+     * on scan job executor.
+     */
+    private void startNextTransponder(ScanJob job) {
+        ScanJob.Transponder transponder;
+        while (isScanJobRunning(job) && (transponder = job.next()) != null) {
+            scheduleCheckpointWrite(job);
+            if (isSkippingUnchanged(job) && isTransponderUnchanged(transponder)) {
+                long lockTime = validateTransponder(transponder);
+                if (lockTime >= 0) {
+                    job.transponderSkipped(lockTime);
+                    continue;
+                }
+                mTransponderCache.invalidate(transponder);
+            }
+            int routeId = Routes.kINVALID_ROUTE;
+            int firstServiceIndex = 0;
+            boolean append;
+            synchronized (this) {
+                append = mScanJobAppend;
+            }
+            try {
+                // Rebuilt list starts with services of this transponder
+                firstServiceIndex = append ? getChannelListSize() : 0;
+                mScanControl.appendList(append);
+                routeId = startTransponderScan(transponder);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+            if (routeId != Routes.kINVALID_ROUTE) {
+                if (!isScanJobRunning(job)) {
+                    // Stopped while scan was being started
+                    abortScan(routeId);
+                    return;
+                }
+                synchronized (this) {
+                    mScanJobAppend = true;
+                }
+                mScanSignals.setFrequency(routeId, transponder.getTunerFrequency());
+                job.transponderStarted(routeId, firstServiceIndex);
+                return;
+            }
+            job.transponderFailed();
+        }
+        synchronized (this) {
+            if (mScanJob != job) {
+                // Stopped, job is already finished
+                return;
+            }
+            mScanJob = null;
+            mScanJobServiceKeys = null;
+            mScanJobAppend = false;
+        }
+        restoreAppendList();
+        runIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                mScanJobCheckpoint.delete();
+            }
+        });
+        mDtvEngine.getServiceDescriptorCache().invalidateAll();
+        // Writes services of last transponder and what validation found
+        finishIngest(true);
+        job.finished();
+    }
+
+    private void abortScan(int routeId) {
+        try {
+            mScanControl.abortScan(routeId);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        releaseScan(routeId);
+    }
+
+    /**
+     * Makes next scans rebuild master list again, after scan job appended to it
+     */
+    private void restoreAppendList() {
+        try {
+            mScanControl.appendList(false);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves progress of scan job. Runs on ingest executor, after transponders that are done
+     * are recorded in transponder cache.
+     */
+    private void scheduleCheckpointWrite(final ScanJob job) {
+        runIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                mScanJobCheckpoint.write(job);
+            }
+        });
+    }
+
+    /**
+     * Checks if there is scan job that was interrupted and can be resumed
+     */
+    public boolean hasScanJobCheckpoint() {
+        return mScanJobCheckpoint.exists();
+    }
+
+    /**
+     * @return Install route ID scan is started on, or {@link Routes#kINVALID_ROUTE}
+     */
+    private int startTransponderScan(ScanJob.Transponder transponder) throws RemoteException {
+        int installRoute = prepareScan(transponder.getType());
+        if (installRoute == Routes.kINVALID_ROUTE) {
+            return installRoute;
+        }
+        if (!configureTransponder(transponder)) {
+            releaseScan(installRoute);
+            return Routes.kINVALID_ROUTE;
+        }
+        mScanControl.manualScan(installRoute);
+        return installRoute;
+    }
+
+    /**
+     * Sets tuning parameters of transponder to scan control
+     *
+     * @return False if source type of transponder can not be tuned
+     */
+    private boolean configureTransponder(ScanJob.Transponder transponder)
+            throws RemoteException {
+        switch (transponder.getType()) {
+            case TER:
+                mScanControl.setFrequency(transponder.getTunerFrequency());
+                break;
+            case CAB:
+                mScanControl.setModulation(transponder.getModulation());
+                mScanControl.setSymbolRate(transponder.getSymbolRate());
+                mScanControl.setFrequency(transponder.getTunerFrequency());
+                break;
+            case SAT:
+                mScanControl.setModulation(transponder.getModulation());
+                mScanControl.setFrequency(transponder.getTunerFrequency());
+                mScanControl.setFecType(transponder.getFec());
+                mScanControl.setSymbolRate(transponder.getSymbolRate());
+                mScanControl.setPolarization(transponder.getPolarization());
+                break;
+            default:
+                mLog.e("[configureTransponder][unsupported source type][" + transponder + "]");
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isTransponderUnchanged(ScanJob.Transponder transponder) {
+        HashSet<String> serviceKeys;
+        synchronized (this) {
+            serviceKeys = mScanJobServiceKeys;
+        }
+        return serviceKeys != null && mTransponderCache.isUnchanged(transponder, serviceKeys);
+    }
+
+    /**
+     * Quickly checks transponder that is unchanged since last scan: it is only tuned and
+     * checked for lock, its tables are not acquired again.
+     *
+     * @return Time in ms it took to lock, or -1 if transponder did not lock
+     */
+    private long validateTransponder(ScanJob.Transponder transponder) {
+        int routeId = Routes.kINVALID_ROUTE;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            routeId = prepareScan(transponder.getType());
+            if (routeId == Routes.kINVALID_ROUTE || !configureTransponder(transponder)) {
+                return -1;
+            }
+            mScanControl.tune(routeId);
+            while (SystemClock.elapsedRealtime() - start < VALIDATE_TIMEOUT_MS) {
+                TunerStatus status = mScanControl.getTunerStatus(routeId);
+                if (status != null && status.isFecLock()) {
+                    return SystemClock.elapsedRealtime() - start;
+                }
+                SystemClock.sleep(VALIDATE_POLL_MS);
+            }
+            mLog.w("[validateTransponder][no lock][" + transponder + "]");
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        } finally {
+            if (routeId != Routes.kINVALID_ROUTE) {
+                try {
+                    mScanControl.untune(routeId);
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
+                releaseScan(routeId);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records services appended to master list by scan of transponder in transponder cache.
+     * Runs on ingest executor, after services found so far are ingested.
+     */
+    private void recordTransponder(final ScanJob.Transponder transponder,
+            final int firstServiceIndex) {
+        if (transponder == null) {
+            return;
+        }
+        final int lastServiceIndex;
+        try {
+            lastServiceIndex = getChannelListSize();
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return;
+        }
+        runIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    List<ChannelDescriptor> services = new ArrayList<ChannelDescriptor>();
+                    int networkId = ChannelDescriptor.EC_NOT_AVAILABLE;
+                    if (firstServiceIndex < lastServiceIndex) {
+                        fetchChannels(firstServiceIndex, lastServiceIndex,
+                                transponder.getType(), services);
+                        networkId = mDtvEngine.getServiceDescriptorCache()
+                                .get(firstServiceIndex).getNID();
+                    }
+                    if (!mTransponderCache.update(transponder, networkId, services)) {
+                        // Skipped on rescan only after next scan confirms it
+                        mLog.d("[recordTransponder][" + transponder + " changed]");
+                    }
+                    mTransponderCache.save();
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    mLog.w("[recordTransponder][interrupted, " + transponder
+                            + " is not recorded]");
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by scan callback when MW detects change of network, transponders of network are
+     * scanned again on next rescan.
+     */
+    public void onNetworkChanged(final int networkId) {
+        mTransponderCache.invalidateNetwork(networkId);
+        runIngestTask(new Runnable() {
+
+            @Override
+            public void run() {
+                mTransponderCache.save();
+            }
+        });
+    }
+
+    /**
+     * Gets scan job running on install route
+     */
+    private synchronized ScanJob getScanJob(int routeId) {
+        return mScanJob != null && mScanJob.getRouteId() == routeId ? mScanJob : null;
+    }
+
+    // Auto Scan for cab, ter and sat routes
+    public boolean startAutoScan(final IScanCallback callback, SourceType type) throws RemoteException {
+        mLog.i("[startAutoScan][" + type + "]");
+        int installRoute = prepareScan(type);
+        if (installRoute == Routes.kINVALID_ROUTE) {
+            return false;
+        }
+        mScanControl.autoScan(installRoute);
+        return true;
+    }
+
+    /**
+     * Starts auto scan on every broadcast frontend type the hardware has. Scans on separate
+     * frontends run concurrently, scan that shares frontend with a running one is started
+     * when that one finishes. All services end up in one channel list, each with source type
+     * of its frontend.
+     *
+     * @return True if at least one scan is started
+     */
+    public boolean startAutoScanAll() throws RemoteException {
+        mLog.d("[startAutoScanAll]");
+        boolean started = false;
+        for (SourceType type : new SourceType[] {
+                SourceType.TER, SourceType.CAB, SourceType.SAT
+        }) {
+            if (!mRouteManager.hasFrontend(RouteManager.getFrontendType(type))) {
+                continue;
+            }
+            if (startAutoScan(null, type)) {
+                started = true;
+                continue;
+            }
+            synchronized (this) {
+                if (isInstallFrontendScanning(type)) {
+                    mQueuedAutoScans.add(type);
+                } else {
+                    mLog.e("[startAutoScanAll][can not start " + type + " scan]");
+                }
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Checks if install route frontend of source type is used by running scan. Must be called
+     * with lock held.
+     */
+    private boolean isInstallFrontendScanning(SourceType type) {
+        Routes routes = mRouteManager.getRouteByServiceType(type);
+        if (routes == null || routes.getInstallRoute() == null) {
+            return false;
+        }
+        int frontendId = routes.getInstallRoute().frontend.getFrontendId();
+        for (ScanRun scan : mScans.values()) {
+            if (scan.mLease.getFrontendId() == frontendId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean startManualScanTer(int frequency) throws RemoteException {
+        mLog.i("[startScan] Started scan for terrestrial frontend!");
+        return startTransponderScan(ScanJob.Transponder.terrestrial(frequency))
+                != Routes.kINVALID_ROUTE;
+    }
+
+    public boolean startManualScanCab(int frequency, Modulation modulation, int symbolRate) throws RemoteException {
+        mLog.i("[startScan] Started scan for cable frontend!");
+        return startTransponderScan(ScanJob.Transponder.cable(frequency, modulation, symbolRate))
+                != Routes.kINVALID_ROUTE;
+    }
+
+    public boolean startManualScanSat(int frequency, Modulation modulation, Polarization polarization, int symbolrate, FecType fec) throws RemoteException {
+        mLog.i("[startScan] Started scan for satelite frontend!");
+        return startTransponderScan(ScanJob.Transponder.satellite(frequency, modulation,
+                polarization, symbolrate, fec)) != Routes.kINVALID_ROUTE;
+    }
+
+    public void stopScan() throws RemoteException {
+        mLog.d("[stopScan]");
+        ArrayList<ScanRun> scans;
+        ScanJob job;
+        synchronized (this) {
+            scans = new ArrayList<ScanRun>(mScans.values());
+            mScans.clear();
+            mQueuedAutoScans.clear();
+            job = mScanJob;
+            mScanJob = null;
+            mScanJobServiceKeys = null;
+            mScanJobAppend = false;
+        }
+        for (ScanRun scan : scans) {
+            mScanControl.abortScan(scan.mRouteId);
+            mDtvEngine.getResourceArbiter().release(scan.mLease);
+        }
+        if (job != null) {
+            restoreAppendList();
+            job.finished();
+        }
+        finishIngest(false);
     }
 
     /**
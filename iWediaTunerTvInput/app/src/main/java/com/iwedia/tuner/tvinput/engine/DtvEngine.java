@@ -21,9 +21,13 @@ import android.view.WindowManager;
 import com.iwedia.dtv.DTVServiceLocator;
 import com.iwedia.dtv.IDTVManager;
 import com.iwedia.dtv.epg.IEpgControl;
+import com.iwedia.dtv.route.broadcast.RouteFrontendType;
+import com.iwedia.dtv.route.broadcast.routemanager.LiveRoutes;
 import com.iwedia.dtv.route.broadcast.routemanager.Routes;
 import com.iwedia.dtv.service.Service;
 import com.iwedia.dtv.service.ServiceDescriptor;
+import com.iwedia.dtv.service.SourceType;
+import com.iwedia.tuner.tvinput.MassStorageReceiver;
 import com.iwedia.tuner.tvinput.TvService;
 import com.iwedia.tuner.tvinput.callbacks.EpgCallback;
 import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
@@ -33,6 +37,8 @@ import com.iwedia.tuner.tvinput.utils.Logger;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -51,8 +57,47 @@ public class DtvEngine {
         UNKNOWN, NOT_RUNNING, RUNNING
     };
 
-    /* Current route used for playback */
-    private Routes mCurrentRoutes = null;
+    /**
+     * Kind of live playback, each one is driven on its own live route
+     */
+    public enum PlaybackType {
+        MAIN, PIP
+    }
+
+    /* Current routes used for playback */
+    private final EnumMap<PlaybackType, Routes> mCurrentRoutes =
+            new EnumMap<PlaybackType, Routes>(PlaybackType.class);
+
+    /* Leases of components used by current routes */
+    private final EnumMap<PlaybackType, ResourceArbiter.Lease> mLiveLeases =
+            new EnumMap<PlaybackType, ResourceArbiter.Lease>(PlaybackType.class);
+
+    /* Services currently played per playback type */
+    private final EnumMap<PlaybackType, Integer> mCurrentServices =
+            new EnumMap<PlaybackType, Integer>(PlaybackType.class);
+
+    /* Deferred stops of released playbacks, cancelled if new session takes the playback over */
+    private final EnumMap<PlaybackType, Runnable> mPendingStops =
+            new EnumMap<PlaybackType, Runnable>(PlaybackType.class);
+
+    /**
+     * Time in ms during which released playback is kept running for the next session
+     */
+    public static final long HANDOVER_WINDOW_MS = 3000;
+
+    /**
+     * Number of users that keep engine running without TV session, e.g. headless scan
+     */
+    private int mUserCount = 0;
+
+    /** True once engine is deinitialized, users can not be added any more */
+    private boolean mDeinitialized = false;
+
+    /** Lock for user count */
+    private final Object mUserLock = new Object();
+
+    /* Display window of PIP playback */
+    private static final int PIP_X = 1380, PIP_Y = 60, PIP_WIDTH = 480, PIP_HEIGHT = 270;
 
 
     /**
@@ -102,6 +147,31 @@ public class DtvEngine {
      */
     private RouteManager mRouteManager;
 
+    /**
+     * Arbiter for frontends, decoders and outputs
+     */
+    private ResourceArbiter mResourceArbiter;
+
+    /**
+     * Cache of master list service descriptors
+     */
+    private ServiceDescriptorCache mServiceDescriptorCache;
+
+    /**
+     * Number of service descriptors kept in cache
+     */
+    private static final int SERVICE_DESCRIPTOR_CACHE_SIZE = 512;
+
+    /**
+     * Mosaic preview session
+     */
+    private MosaicSession mMosaicSession;
+
+    /**
+     * Receiver for mass storage mount and unmount events
+     */
+    private MassStorageReceiver mMassStorageReceiver;
+
     /**
      * Instance of this manager
      */
@@ -127,6 +197,9 @@ public class DtvEngine {
     /** Handler for adding EPG events */
     private Handler mEpgHandler;
 
+    /** Handler for deferred stop of released playbacks */
+    private Handler mHandoverHandler;
+
     /** EPG CallBack */
     private EpgCallback mEPGCallBack = null;
     private int mEPGCAllbackId;
@@ -226,6 +299,12 @@ public class DtvEngine {
     private void initializeDtvFunctionality() throws RemoteException {
         mLog.d("[initializeDtvFunctionality]");
         mRouteManager = new RouteManager(mDtvManager);
+        mResourceArbiter = new ResourceArbiter();
+        mServiceDescriptorCache = new ServiceDescriptorCache(mDtvManager.getServiceControl(),
+                SERVICE_DESCRIPTOR_CACHE_SIZE);
+        mMosaicSession = new MosaicSession(mDtvManager, mRouteManager, mResourceArbiter);
+        mMassStorageReceiver = new MassStorageReceiver();
+        mContext.registerReceiver(mMassStorageReceiver, MassStorageReceiver.createIntentFilter());
         mAudioManager = new AudioManager(mDtvManager.getAudioControl());
         mChannelManager = new ChannelManager(sInstance, mContext);
         mChannelManager.init();
@@ -234,6 +313,7 @@ public class DtvEngine {
         mEpgAcquisitionManager = new EpgAcquisitionManager(mContext);
         mEpgAcquisitionManager.loadEpgPrefs();
         mEpgHandler = new Handler(mHandlerThread.getLooper());
+        mHandoverHandler = new Handler(mHandlerThread.getLooper());
         mEPGCallBack = new EpgCallback(this);
         mEpgManager = new EpgManager(this);
     }
@@ -253,12 +333,25 @@ public class DtvEngine {
      * @throws RemoteException
      */
     public void stop() throws RemoteException {
-        mLog.d("[stop]");
+        stop(PlaybackType.MAIN);
+    }
+
+    /**
+     * Stop MW video playback of given type.
+     *
+     * @throws RemoteException
+     */
+    public synchronized void stop(PlaybackType type) throws RemoteException {
+        mLog.d("[stop][" + type + "]");
+        cancelPendingStop(type);
+        mCurrentServices.remove(type);
+        Routes routes = mCurrentRoutes.remove(type);
         try {
-            mDtvManager.getServiceControl().stopService(mCurrentRoutes.getLiveRouteID());
+            mDtvManager.getServiceControl().stopService(routes.getLiveRouteID());
         } catch (Exception e) {
 
         }
+        mResourceArbiter.release(mLiveLeases.remove(type));
     }
 
     /**
@@ -267,25 +360,225 @@ public class DtvEngine {
      * @throws RemoteException
      */
     public boolean start(ChannelDescriptor channel) throws RemoteException {
-        mLog.d("[startDvb][" + channel.toString() + "]");
+        return start(PlaybackType.MAIN, channel);
+    }
 
-        mCurrentRoutes = mRouteManager.getRouteByServiceType(channel.getSourceType());
-        if ((mCurrentRoutes == null) || (mCurrentRoutes.getLiveRoute() == null)) {
-            mLog.e("[startDvb][unknown source type: " + channel.getSourceType() + "]");
+    /**
+     * Change Channel of given playback type. Main playback uses route of channel source type,
+     * PIP playback uses IP PIP route or any other free live route of channel source type.
+     *
+     * @throws RemoteException
+     */
+    public synchronized boolean start(PlaybackType type, ChannelDescriptor channel)
+            throws RemoteException {
+        mLog.d("[startDvb][" + type + "][" + channel.toString() + "]");
+        cancelPendingStop(type);
+
+        // Release own lease first so that re-tune can reuse the same route
+        mResourceArbiter.release(mLiveLeases.remove(type));
+
+        Routes routes;
+        if (type == PlaybackType.MAIN) {
+            routes = mRouteManager.getRouteByServiceType(channel.getSourceType());
+        } else {
+            routes = getPipRoutes(channel);
+        }
+        Routes previous = mCurrentRoutes.get(type);
+        if (previous != null && (routes == null || routes.getLiveRoute() == null
+                || previous.getLiveRouteID() != routes.getLiveRouteID())) {
+            // Service on previous route would keep its decoder running
+            mLog.d("[startDvb][" + type + "][leaving route " + previous.getLiveRouteID() + "]");
+            mCurrentRoutes.remove(type);
+            mCurrentServices.remove(type);
+            try {
+                mDtvManager.getServiceControl().stopService(previous.getLiveRouteID());
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+        if ((routes == null) || (routes.getLiveRoute() == null)) {
+            mLog.e("[startDvb][no route for source type: " + channel.getSourceType() + "]");
             return false;
         }
 
-        mCurrentlyActiveChannel = channel.getServiceId();
-        mDtvManager.getServiceControl().startService(mCurrentRoutes.getLiveRouteID(), MASTER_LIST_INDEX,
-                mCurrentlyActiveChannel);
+        // Video output is shared between playbacks, only frontend and decoder are exclusive
+        LiveRoutes live = routes.getLiveRoute();
+        ResourceArbiter.Lease lease = mResourceArbiter.acquire(TvService.APP_NAME + type,
+                ResourceArbiter.Priority.LIVE, live.frontend.getFrontendId(),
+                live.decoder.getDecoderId(), ResourceArbiter.NO_RESOURCE, null);
+        if (lease == null) {
+            mLog.e("[startDvb][live route components are busy]");
+            return false;
+        }
+        mLiveLeases.put(type, lease);
+        mCurrentRoutes.put(type, routes);
 
-        mDtvManager.getDisplayControl().scaleWindow(mCurrentRoutes.getLiveRouteID(), 0, 0, 1920, 1080);
+        // Route may have been left video only by PIP or mosaic preview
+        mRouteManager.configureLiveComponents(routes.getLiveRouteID(),
+                type == PlaybackType.MAIN);
+
+        if (type == PlaybackType.MAIN) {
+            mCurrentlyActiveChannel = channel.getServiceId();
+        }
+        mCurrentServices.put(type, channel.getServiceId());
+        mDtvManager.getServiceControl().startService(routes.getLiveRouteID(), MASTER_LIST_INDEX,
+                channel.getServiceId());
+
+        if (type == PlaybackType.MAIN) {
+            mDtvManager.getDisplayControl().scaleWindow(routes.getLiveRouteID(), 0, 0, 1920, 1080);
+        } else {
+            mDtvManager.getDisplayControl().scaleWindow(routes.getLiveRouteID(), PIP_X, PIP_Y,
+                    PIP_WIDTH, PIP_HEIGHT);
+        }
         return true;
     }
 
+    /**
+     * Releases playback of session that is going away. Playback is kept running for
+     * {@link #HANDOVER_WINDOW_MS} so that next session can take it over with
+     * {@link #resume(PlaybackType, ChannelDescriptor)}, and is stopped afterwards.
+     */
+    public synchronized void release(final PlaybackType type) {
+        mLog.d("[release][" + type + "]");
+        cancelPendingStop(type);
+        if (!mCurrentRoutes.containsKey(type)) {
+            return;
+        }
+        Runnable stopRunnable = new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (DtvEngine.this) {
+                    if (mPendingStops.get(type) != this) {
+                        return;
+                    }
+                    mPendingStops.remove(type);
+                    try {
+                        stop(type);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        };
+        mPendingStops.put(type, stopRunnable);
+        mHandoverHandler.postDelayed(stopRunnable, HANDOVER_WINDOW_MS);
+    }
+
+    /**
+     * Takes over released playback if it is still running the same channel on the route this
+     * channel would be started on. Route, decoder and lease are kept as they are, caller only
+     * has to re-bind its surface.
+     *
+     * @return true if playback was taken over, false if channel has to be started
+     */
+    public synchronized boolean resume(PlaybackType type, ChannelDescriptor channel) {
+        Runnable pending = mPendingStops.remove(type);
+        if (pending == null) {
+            return false;
+        }
+        mHandoverHandler.removeCallbacks(pending);
+        Integer service = mCurrentServices.get(type);
+        Routes routes = mCurrentRoutes.get(type);
+        // Routes object is replaced when mass storages are refreshed, compare live route IDs
+        Routes target = mRouteManager.getRouteByServiceType(channel.getSourceType());
+        boolean sameRoute = type == PlaybackType.PIP || (routes != null && target != null
+                && routes.getLiveRouteID() == target.getLiveRouteID());
+        if (service != null && service == channel.getServiceId() && sameRoute) {
+            mLog.d("[resume][" + type + "][taking over " + channel + "]");
+            return true;
+        }
+        try {
+            stop(type);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private void cancelPendingStop(PlaybackType type) {
+        Runnable pending = mPendingStops.remove(type);
+        if (pending != null) {
+            mHandoverHandler.removeCallbacks(pending);
+        }
+    }
+
+    /**
+     * Gets routes for PIP playback of channel: IP PIP route for IP channels, otherwise free live
+     * route of channel source type.
+     */
+    private Routes getPipRoutes(ChannelDescriptor channel) throws RemoteException {
+        if (channel.getSourceType() == SourceType.IP) {
+            return mRouteManager.getIpPipRoute();
+        }
+        RouteFrontendType frontendType = RouteManager.getFrontendType(channel.getSourceType());
+        if (frontendType == null) {
+            return null;
+        }
+        LiveRoutes live = mRouteManager.findLiveRoute(frontendType, null, null,
+                mResourceArbiter, ResourceArbiter.Priority.LIVE);
+        if (live == null) {
+            return null;
+        }
+        return new Routes(live, null, null);
+    }
+
+    /**
+     * Gets frontend playback of given type is leased on
+     *
+     * @return Frontend ID, or {@link ResourceArbiter#NO_RESOURCE} if playback is not running
+     */
+    public synchronized int getLiveFrontendId(PlaybackType type) {
+        ResourceArbiter.Lease lease = mLiveLeases.get(type);
+        return lease != null && lease.isActive() ? lease.getFrontendId()
+                : ResourceArbiter.NO_RESOURCE;
+    }
+
+    /**
+     * Gets live route ID used by playback of given type. For main playback that is not started
+     * yet, main live route is returned.
+     */
+    public synchronized int getLiveRouteId(PlaybackType type) {
+        Routes routes = mCurrentRoutes.get(type);
+        if (routes != null) {
+            return routes.getLiveRouteID();
+        }
+        return type == PlaybackType.MAIN ? mRouteManager.getMainLiveRouteId()
+                : Routes.kINVALID_ROUTE;
+    }
+
+    /**
+     * Stops main and PIP playback and starts mosaic preview of given channels. Sessions driving
+     * that playback are not told, callers pause them first, see TvService#onStartMosaic.
+     *
+     * @param columns Number of grid columns
+     * @return Number of started tiles
+     * @throws RemoteException
+     */
+    public int startMosaic(List<ChannelDescriptor> channels, int columns)
+            throws RemoteException {
+        mLog.d("[startMosaic]");
+        stop(PlaybackType.PIP);
+        stop(PlaybackType.MAIN);
+        return mMosaicSession.start(channels, columns);
+    }
+
+    /**
+     * Stops mosaic preview
+     */
+    public void stopMosaic() {
+        mLog.d("[stopMosaic]");
+        mMosaicSession.stop();
+    }
+
+    public MosaicSession getMosaicSession() {
+        return mMosaicSession;
+    }
+
     public int getCurrentServiceIndex() throws RemoteException {
         mLog.d("[getCurrentServiceIndex]");
-        Service service = mDtvManager.getServiceControl().getActiveService(mCurrentRoutes.getLiveRouteID());
+        Service service = mDtvManager.getServiceControl().getActiveService(
+                getLiveRouteId(PlaybackType.MAIN));
         return service.getServiceIndex();
     }
 
@@ -384,8 +677,8 @@ public class DtvEngine {
     }
 
     public Long getCurrentTransponder() throws RemoteException {
-        ServiceDescriptor serviceDescriptor = mDtvManager.getServiceControl().getServiceDescriptor(
-                MASTER_LIST_INDEX, getCurrentServiceIndex());
+        ServiceDescriptor serviceDescriptor = mServiceDescriptorCache.get(
+                getCurrentServiceIndex());
         return (long) serviceDescriptor.getFrequency();
     }
     /**
@@ -427,6 +720,24 @@ public class DtvEngine {
         mLog.d("[getRouteManager]");
         return mRouteManager;
     }
+    /**
+     * Gets Resource Arbiter
+     *
+     * @return Arbiter instance
+     */
+    public ResourceArbiter getResourceArbiter() {
+        return mResourceArbiter;
+    }
+
+    /**
+     * Gets cache of master list service descriptors
+     *
+     * @return Cache instance
+     */
+    public ServiceDescriptorCache getServiceDescriptorCache() {
+        return mServiceDescriptorCache;
+    }
+
     /**
      * Gets MW Control handle of EPG
      *
@@ -450,6 +761,45 @@ public class DtvEngine {
         return mEpgAcquisitionManager;
     }
 
+    /**
+     * Keeps engine running without TV session until {@link #removeUser()} is called
+     *
+     * @return False if engine is already deinitialized
+     */
+    public boolean addUser() {
+        synchronized (mUserLock) {
+            if (mDeinitialized) {
+                return false;
+            }
+            mUserCount++;
+            return true;
+        }
+    }
+
+    public void removeUser() {
+        synchronized (mUserLock) {
+            if (mUserCount > 0) {
+                mUserCount--;
+            }
+        }
+    }
+
+    /**
+     * Deinitializes engine unless some user still keeps it running
+     *
+     * @return False if engine is still used
+     */
+    public boolean deinitIfUnused() {
+        synchronized (mUserLock) {
+            if (mUserCount > 0) {
+                return false;
+            }
+            mDeinitialized = true;
+            deinit();
+            return true;
+        }
+    }
+
     /**
      * Deinit DVB manager
      */
@@ -462,10 +812,14 @@ public class DtvEngine {
             mLog.i("THE LAND WILL BURN");
             mEpgManager.unregisterCallback(mCallbackId);
             mLog.i("AND THE PEOPLE TOO");
-            stop();
+            stop(PlaybackType.PIP);
+            stop(PlaybackType.MAIN);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
+        mMosaicSession.stop();
+        mChannelManager.deinit();
+        mContext.unregisterReceiver(mMassStorageReceiver);
         sInstance = null;
         mHandlerThread.quit();
         mHandlerThread = null;
@@ -22,11 +22,13 @@ import com.iwedia.dtv.epg.EpgServiceFilter;
 import com.iwedia.dtv.epg.EpgTimeFilter;
 import com.iwedia.dtv.epg.IEpgCallback;
 import com.iwedia.dtv.epg.IEpgControl;
+import com.iwedia.dtv.route.broadcast.routemanager.LiveRoutes;
 import com.iwedia.dtv.route.broadcast.routemanager.Routes;
 import com.iwedia.dtv.setup.ISetupControl;
 import com.iwedia.dtv.types.TimeDate;
 import com.iwedia.tuner.tvinput.TvService;
 import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
+import com.iwedia.tuner.tvinput.engine.DtvEngine.PlaybackType;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
 import java.util.ArrayList;
@@ -47,6 +49,22 @@ public class EpgManager {
     private static final int INITIAL_PREPARE_DELAY = 5000;
     private Handler mHandler = new Handler();
 
+    /**
+     * Stops acquisition when frontend is taken by live playback or recording
+     */
+    private final ResourceArbiter.IPreemptionListener mPreemptionListener =
+            new ResourceArbiter.IPreemptionListener() {
+                @Override
+                public void onLeasePreempted(ResourceArbiter.Lease lease) {
+                    mLog.i("[onLeasePreempted][stopping acquisition]");
+                    try {
+                        mEpgControl.stopAcquisition(mEpgClientId);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+
     public EpgManager(DtvEngine dtvManager) {
         mDTVManager = dtvManager;
         try {
@@ -147,29 +165,62 @@ public class EpgManager {
         EpgServiceFilter lEpgServiceFilter = new EpgServiceFilter();
         lEpgServiceFilter.setServiceIndex(indexInMasterList);
         mEpgControl.setFilter(mEpgClientId, lEpgServiceFilter);
-        mEpgControl.startAcquisition(mEpgClientId);
-        lEpgEventsSize = mEpgControl.getAvailableEventsNumber(
-                mEpgClientId, indexInMasterList);
-        for (int eventIndex = 0; eventIndex < lEpgEventsSize; eventIndex++) {
-            // if(mDTVManager.getScanManager().isScanStarted()){
-            // break;
-            // }
-            lEvent = mEpgControl.getRequestedEvent(mEpgClientId, indexInMasterList, eventIndex);
-            if (lEvent != null) {
-                // Logger.log("Event BEFORE: " + lEvent.getName() + ", " +
-                // lEvent.getStartTime().toString() + " - " +
-                // lEvent.getEndTime());
-                changeEventTimes(lEvent, (int) diffDays);
-                events.add(lEvent);
-                // Logger.log("Event AFTER: " + lEvent.getName() + ", " +
-                // lEvent.getStartTime().toString() + " - " + lEvent
-                // .getEndTime() + ", diffDays: " + diffDays);
+        ResourceArbiter.Lease lease = null;
+        if (mDTVManager.getLiveFrontendId(PlaybackType.MAIN) == ResourceArbiter.NO_RESOURCE) {
+            // Events come from transponder main playback is tuned to, its lease keeps scans
+            // away. Without main playback acquisition needs frontend of its own.
+            lease = acquireFrontend();
+            if (lease == null) {
+                mLog.w("[getEpgEvents][frontend is busy]");
+                return events;
             }
         }
-        mEpgControl.stopAcquisition(mEpgClientId);
+        try {
+            mEpgControl.startAcquisition(mEpgClientId);
+            lEpgEventsSize = mEpgControl.getAvailableEventsNumber(
+                    mEpgClientId, indexInMasterList);
+            for (int eventIndex = 0; eventIndex < lEpgEventsSize; eventIndex++) {
+                if (lease != null && !lease.isActive()) {
+                    // Preempted, acquisition is already stopped
+                    return events;
+                }
+                // if(mDTVManager.getScanManager().isScanStarted()){
+                // break;
+                // }
+                lEvent = mEpgControl.getRequestedEvent(mEpgClientId, indexInMasterList, eventIndex);
+                if (lEvent != null) {
+                    // Logger.log("Event BEFORE: " + lEvent.getName() + ", " +
+                    // lEvent.getStartTime().toString() + " - " +
+                    // lEvent.getEndTime());
+                    changeEventTimes(lEvent, (int) diffDays);
+                    events.add(lEvent);
+                    // Logger.log("Event AFTER: " + lEvent.getName() + ", " +
+                    // lEvent.getStartTime().toString() + " - " + lEvent
+                    // .getEndTime() + ", diffDays: " + diffDays);
+                }
+            }
+            mEpgControl.stopAcquisition(mEpgClientId);
+        } finally {
+            mDTVManager.getResourceArbiter().release(lease);
+        }
         return events;
     }
 
+    /**
+     * Leases frontend of main live route for EPG acquisition
+     *
+     * @return Lease, or null if frontend is held by live playback, recording or mosaic preview
+     */
+    private ResourceArbiter.Lease acquireFrontend() {
+        LiveRoutes live = mDTVManager.getRouteManager().getMainLiveRoute();
+        if (live == null) {
+            return null;
+        }
+        return mDTVManager.getResourceArbiter().acquire(EpgManager.class.getSimpleName(),
+                ResourceArbiter.Priority.EPG, live.frontend.getFrontendId(),
+                ResourceArbiter.NO_RESOURCE, ResourceArbiter.NO_RESOURCE, mPreemptionListener);
+    }
+
     private void changeEventTimes(EpgEvent event, int dayDifference) {
         TimeDate startTimeDate = event.getStartTime();
         TimeDate endTimeDate = event.getEndTime();
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import android.os.RemoteException;
+
+import com.iwedia.dtv.IDTVManager;
+import com.iwedia.dtv.route.broadcast.RouteFrontendType;
+import com.iwedia.dtv.route.broadcast.routemanager.LiveRoutes;
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mosaic preview: several services decoded at once on separate live routes and decoders, each
+ * scaled into its own grid region. One tile at a time is promoted to full screen with audio.
+ */
+public class MosaicSession {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + MosaicSession.class.getSimpleName(), Logger.ERROR);
+
+    /**
+     * Maximum number of tiles
+     */
+    public static final int MAX_TILES = 9;
+
+    /**
+     * Display size used for grid layout
+     */
+    private static final int SCREEN_WIDTH = 1920;
+    private static final int SCREEN_HEIGHT = 1080;
+
+    /**
+     * No tile is promoted
+     */
+    public static final int NO_TILE = -1;
+
+    /**
+     * Service running on one live route
+     */
+    private class Tile implements ResourceArbiter.IPreemptionListener {
+        private final ChannelDescriptor mChannel;
+        private final LiveRoutes mLiveRoute;
+        private ResourceArbiter.Lease mLease;
+        private int mX, mY, mWidth, mHeight;
+
+        private Tile(ChannelDescriptor channel, LiveRoutes liveRoute) {
+            mChannel = channel;
+            mLiveRoute = liveRoute;
+        }
+
+        /**
+         * Stops tile whose route is taken by live playback or recording. Tile stays in grid
+         * as stopped, its route now belongs to the new consumer.
+         */
+        @Override
+        public void onLeasePreempted(ResourceArbiter.Lease lease) {
+            mLog.i("[onLeasePreempted][" + mChannel + "]");
+            try {
+                mDtvManager.getServiceControl().stopService(mLiveRoute.route);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private boolean isRunning() {
+            return mLease != null && mLease.isActive();
+        }
+    }
+
+    private final IDTVManager mDtvManager;
+    private final RouteManager mRouteManager;
+    private final ResourceArbiter mResourceArbiter;
+    private final ArrayList<Tile> mTiles = new ArrayList<Tile>();
+    private int mPromotedTile = NO_TILE;
+
+    public MosaicSession(IDTVManager dtvManager, RouteManager routeManager,
+            ResourceArbiter resourceArbiter) {
+        mDtvManager = dtvManager;
+        mRouteManager = routeManager;
+        mResourceArbiter = resourceArbiter;
+    }
+
+    /**
+     * Starts channels on free live routes, laid out in grid with given number of columns.
+     * Channels for which there is no free route and decoder are skipped. Tiles lease their
+     * routes with {@link ResourceArbiter.Priority#PREVIEW}, live playback started on a tile's
+     * frontend or decoder stops that tile.
+     *
+     * @return Number of started tiles
+     * @throws RemoteException
+     */
+    public synchronized int start(List<ChannelDescriptor> channels, int columns)
+            throws RemoteException {
+        mLog.d("[start][channels: " + channels.size() + "][columns: " + columns + "]");
+        stop();
+        columns = Math.max(columns, 1);
+        for (ChannelDescriptor channel : channels) {
+            if (mTiles.size() == MAX_TILES) {
+                break;
+            }
+            RouteFrontendType frontendType = RouteManager.getFrontendType(channel
+                    .getSourceType());
+            LiveRoutes live = frontendType == null ? null : mRouteManager.findLiveRoute(
+                    frontendType, null, null, mResourceArbiter, ResourceArbiter.Priority.PREVIEW);
+            if (live == null) {
+                mLog.w("[start][no free live route][" + channel + "]");
+                continue;
+            }
+            Tile tile = new Tile(channel, live);
+            // Tiles share the output, only frontend and decoder are exclusive
+            tile.mLease = mResourceArbiter.acquire(MosaicSession.class.getSimpleName(),
+                    ResourceArbiter.Priority.PREVIEW, live.frontend.getFrontendId(),
+                    live.decoder.getDecoderId(), ResourceArbiter.NO_RESOURCE, tile);
+            if (tile.mLease == null) {
+                continue;
+            }
+            mTiles.add(tile);
+        }
+
+        int rows = (mTiles.size() + columns - 1) / columns;
+        for (int i = 0; i < mTiles.size(); i++) {
+            Tile tile = mTiles.get(i);
+            tile.mWidth = SCREEN_WIDTH / columns;
+            tile.mHeight = SCREEN_HEIGHT / Math.max(rows, 1);
+            tile.mX = (i % columns) * tile.mWidth;
+            tile.mY = (i / columns) * tile.mHeight;
+            configure(tile, false);
+            mDtvManager.getServiceControl().startService(tile.mLiveRoute.route,
+                    DtvEngine.MASTER_LIST_INDEX, tile.mChannel.getServiceId());
+            mDtvManager.getDisplayControl().scaleWindow(tile.mLiveRoute.route, tile.mX,
+                    tile.mY, tile.mWidth, tile.mHeight);
+        }
+        mLog.d("[start][started tiles: " + mTiles.size() + "]");
+        return mTiles.size();
+    }
+
+    /**
+     * Promotes tile to full screen with audio, returning previously promoted tile to its grid
+     * region without audio.
+     *
+     * @param index Tile index, or {@link #NO_TILE} to return to grid
+     * @return true if tile was promoted
+     * @throws RemoteException
+     */
+    public synchronized boolean promote(int index) throws RemoteException {
+        mLog.d("[promote][" + mPromotedTile + " -> " + index + "]");
+        if (index != NO_TILE && (index < 0 || index >= mTiles.size()
+                || !mTiles.get(index).isRunning())) {
+            return false;
+        }
+        if (mPromotedTile != NO_TILE && mTiles.get(mPromotedTile).isRunning()) {
+            Tile previous = mTiles.get(mPromotedTile);
+            configure(previous, false);
+            mDtvManager.getDisplayControl().scaleWindow(previous.mLiveRoute.route,
+                    previous.mX, previous.mY, previous.mWidth, previous.mHeight);
+        }
+        mPromotedTile = index;
+        if (index != NO_TILE) {
+            Tile tile = mTiles.get(index);
+            configure(tile, true);
+            mDtvManager.getDisplayControl().scaleWindow(tile.mLiveRoute.route, 0, 0,
+                    SCREEN_WIDTH, SCREEN_HEIGHT);
+        }
+        return true;
+    }
+
+    /**
+     * Stops all tiles and releases their routes. Routes are configured back for all
+     * components, tile can be on route main playback uses. Preempted tiles are left alone,
+     * their routes are used by someone else.
+     */
+    public synchronized void stop() {
+        for (Tile tile : mTiles) {
+            if (!tile.isRunning()) {
+                continue;
+            }
+            try {
+                mDtvManager.getServiceControl().stopService(tile.mLiveRoute.route);
+                configure(tile, true);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+            mResourceArbiter.release(tile.mLease);
+        }
+        mTiles.clear();
+        mPromotedTile = NO_TILE;
+    }
+
+    public synchronized int getTileCount() {
+        return mTiles.size();
+    }
+
+    public synchronized int getPromotedTile() {
+        return mPromotedTile;
+    }
+
+    /**
+     * Gets live route ID of tile, e.g. for track selection
+     */
+    public synchronized int getTileRouteId(int index) {
+        return mTiles.get(index).mLiveRoute.route;
+    }
+
+    /**
+     * Configures tile components: video only in grid, all components when promoted.
+     */
+    private void configure(Tile tile, boolean promoted) throws RemoteException {
+        mRouteManager.configureLiveComponents(tile.mLiveRoute.route, promoted);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import com.iwedia.dtv.route.broadcast.routemanager.InstallRoutes;
+import com.iwedia.dtv.route.broadcast.routemanager.LiveRoutes;
+import com.iwedia.dtv.route.broadcast.routemanager.RecordRoutes;
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arbiter that leases frontends, decoders and outputs to route consumers (live playback,
+ * recording, mosaic preview, EPG acquisition, scan). A higher priority request preempts lower
+ * priority leases that hold any of the same components, lower or equal priority requests are
+ * refused.
+ */
+public class ResourceArbiter {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + ResourceArbiter.class.getSimpleName(), Logger.ERROR);
+
+    /**
+     * Component ID used when lease does not need that component
+     */
+    public static final int NO_RESOURCE = -1;
+
+    /**
+     * Lease priorities, from lowest to highest. Preview is mosaic tile, it gives way to live
+     * playback and recording.
+     */
+    public enum Priority {
+        SCAN, EPG, PREVIEW, RECORDING, LIVE
+    }
+
+    /**
+     * Listener that is informed when lease is taken away by higher priority consumer
+     */
+    public interface IPreemptionListener {
+        public void onLeasePreempted(Lease lease);
+    }
+
+    /**
+     * Frontend, decoder and output granted to one consumer
+     */
+    public static class Lease {
+        private final String mConsumer;
+        private final Priority mPriority;
+        private final int mFrontendId;
+        private final int mDecoderId;
+        private final int mOutputId;
+        private final IPreemptionListener mListener;
+        private final long mAcquiredTime;
+        private boolean mActive = true;
+
+        private Lease(String consumer, Priority priority, int frontendId, int decoderId,
+                int outputId, IPreemptionListener listener) {
+            mConsumer = consumer;
+            mPriority = priority;
+            mFrontendId = frontendId;
+            mDecoderId = decoderId;
+            mOutputId = outputId;
+            mListener = listener;
+            mAcquiredTime = System.currentTimeMillis();
+        }
+
+        private boolean conflictsWith(int frontendId, int decoderId, int outputId) {
+            return (frontendId != NO_RESOURCE && frontendId == mFrontendId)
+                    || (decoderId != NO_RESOURCE && decoderId == mDecoderId)
+                    || (outputId != NO_RESOURCE && outputId == mOutputId);
+        }
+
+        public String getConsumer() {
+            return mConsumer;
+        }
+
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        public int getFrontendId() {
+            return mFrontendId;
+        }
+
+        public int getDecoderId() {
+            return mDecoderId;
+        }
+
+        public int getOutputId() {
+            return mOutputId;
+        }
+
+        public synchronized boolean isActive() {
+            return mActive;
+        }
+
+        @Override
+        public String toString() {
+            return "consumer: " + mConsumer + ", priority: " + mPriority + ", fe: " + mFrontendId
+                    + ", dec: " + mDecoderId + ", out: " + mOutputId + ", active: " + mActive;
+        }
+    }
+
+    /**
+     * Currently active leases
+     */
+    private final ArrayList<Lease> mLeases = new ArrayList<Lease>();
+
+    /** Lease metrics */
+    private int mGrantedCount = 0;
+    private int mReleasedCount = 0;
+    private int mRefusedCount = 0;
+    private int mPreemptedCount = 0;
+    private long mTotalHoldTime = 0;
+
+    /**
+     * Leases components of live route.
+     *
+     * @return Lease, or null if components are held by equal or higher priority consumer
+     */
+    public Lease acquire(String consumer, Priority priority, LiveRoutes live,
+            IPreemptionListener listener) {
+        if (live == null) {
+            return null;
+        }
+        return acquire(consumer, priority, live.frontend.getFrontendId(),
+                live.decoder.getDecoderId(), live.output.getInputOutputId(), listener);
+    }
+
+    /**
+     * Leases frontend of install route.
+     *
+     * @return Lease, or null if frontend is held by equal or higher priority consumer
+     */
+    public Lease acquire(String consumer, Priority priority, InstallRoutes install,
+            IPreemptionListener listener) {
+        if (install == null) {
+            return null;
+        }
+        return acquire(consumer, priority, install.frontend.getFrontendId(), NO_RESOURCE,
+                NO_RESOURCE, listener);
+    }
+
+    /**
+     * Leases frontend of record route.
+     *
+     * @return Lease, or null if frontend is held by equal or higher priority consumer
+     */
+    public Lease acquire(String consumer, Priority priority, RecordRoutes record,
+            IPreemptionListener listener) {
+        if (record == null) {
+            return null;
+        }
+        return acquire(consumer, priority, record.frontend.getFrontendId(), NO_RESOURCE,
+                NO_RESOURCE, listener);
+    }
+
+    /**
+     * Leases components. Pass {@link #NO_RESOURCE} for component that is not needed.
+     *
+     * @return Lease, or null if any component is held by equal or higher priority consumer
+     */
+    public Lease acquire(String consumer, Priority priority, int frontendId, int decoderId,
+            int outputId, IPreemptionListener listener) {
+        List<Lease> preempted = new ArrayList<Lease>();
+        Lease lease;
+        synchronized (this) {
+            for (Lease held : mLeases) {
+                if (held.conflictsWith(frontendId, decoderId, outputId)
+                        && held.mPriority.compareTo(priority) >= 0) {
+                    mRefusedCount++;
+                    mLog.w("[acquire][refused][" + consumer + "][held by: " + held + "]");
+                    return null;
+                }
+            }
+            for (int i = mLeases.size() - 1; i >= 0; i--) {
+                Lease held = mLeases.get(i);
+                if (held.conflictsWith(frontendId, decoderId, outputId)) {
+                    mLeases.remove(i);
+                    deactivate(held);
+                    mPreemptedCount++;
+                    preempted.add(held);
+                }
+            }
+            lease = new Lease(consumer, priority, frontendId, decoderId, outputId, listener);
+            mLeases.add(lease);
+            mGrantedCount++;
+            mLog.d("[acquire][granted][" + lease + "]");
+        }
+
+        // Inform preempted consumers outside of the lock, they usually call back into MW
+        for (Lease held : preempted) {
+            mLog.i("[acquire][preempted][" + held + "][by: " + consumer + "]");
+            if (held.mListener != null) {
+                held.mListener.onLeasePreempted(held);
+            }
+        }
+        return lease;
+    }
+
+    /**
+     * Checks if components would be leased for given priority, without leasing them.
+     */
+    public synchronized boolean isAvailable(int frontendId, int decoderId, int outputId,
+            Priority priority) {
+        for (Lease held : mLeases) {
+            if (held.conflictsWith(frontendId, decoderId, outputId)
+                    && held.mPriority.compareTo(priority) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases lease. Releasing inactive or null lease does nothing.
+     */
+    public synchronized void release(Lease lease) {
+        if (lease == null || !mLeases.remove(lease)) {
+            return;
+        }
+        deactivate(lease);
+        mReleasedCount++;
+        mLog.d("[release][" + lease + "]");
+    }
+
+    private void deactivate(Lease lease) {
+        synchronized (lease) {
+            lease.mActive = false;
+        }
+        mTotalHoldTime += System.currentTimeMillis() - lease.mAcquiredTime;
+    }
+
+    /**
+     * Gets copy of currently active leases
+     */
+    public synchronized List<Lease> getActiveLeases() {
+        return new ArrayList<Lease>(mLeases);
+    }
+
+    public synchronized int getGrantedCount() {
+        return mGrantedCount;
+    }
+
+    public synchronized int getReleasedCount() {
+        return mReleasedCount;
+    }
+
+    /**
+     * Gets number of requests refused because of contention
+     */
+    public synchronized int getRefusedCount() {
+        return mRefusedCount;
+    }
+
+    public synchronized int getPreemptedCount() {
+        return mPreemptedCount;
+    }
+
+    /**
+     * Gets average time in milliseconds leases were held before release or preemption
+     */
+    public synchronized long getAverageHoldTime() {
+        int finished = mReleasedCount + mPreemptedCount;
+        return finished == 0 ? 0 : mTotalHoldTime / finished;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "active: " + mLeases.size() + ", granted: " + mGrantedCount + ", released: "
+                + mReleasedCount + ", refused: " + mRefusedCount + ", preempted: "
+                + mPreemptedCount + ", average hold: " + getAverageHoldTime() + " ms";
+    }
+}
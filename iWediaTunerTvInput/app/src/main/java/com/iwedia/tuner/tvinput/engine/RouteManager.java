@@ -26,13 +26,21 @@ import com.iwedia.dtv.route.broadcast.routemanager.PlaybackRoutes;
 import com.iwedia.dtv.route.broadcast.routemanager.RecordRoutes;
 import com.iwedia.dtv.route.broadcast.routemanager.Routes;
 import com.iwedia.dtv.route.common.RouteDecoderDescriptor;
+import com.iwedia.dtv.route.common.RouteDecoderType;
 import com.iwedia.dtv.route.common.RouteInputOutputDescriptor;
+import com.iwedia.dtv.route.common.RouteInputOutputDeviceType;
 import com.iwedia.dtv.service.SourceType;
 import com.iwedia.dtv.types.VideoPosition;
 import com.iwedia.tuner.tvinput.TvService;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class RouteManager {
 
@@ -46,15 +54,60 @@ public class RouteManager {
     private Routes mIpPrimaryRoutes = null;
     private Routes mIpSecondaryRoutes = null;
     private Routes mIpPipRoutes = null;
-    private Routes mTerLiveRoutes = null;
-    private Routes mCabLiveRoutes = null;
-    private Routes mSatLiveRoutes = null;
+
+    /**
+     * TER, CAB and SAT route sets, resolved on first use
+     */
+    private final EnumMap<RouteFrontendType, Routes> mBroadcastRoutes =
+            new EnumMap<RouteFrontendType, Routes>(RouteFrontendType.class);
 
     private PlaybackRoutes mPlaybackMainRoute = null;
     private PlaybackRoutes mPlaybackPipRoute = null;
+    private boolean mPlaybackRoutesResolved = false;
 
     private IDTVManager mDtvManager = null;
 
+    /**
+     * Component descriptors, fetched once from MW. Routes are built from these on demand.
+     */
+    private RouteFrontendDescriptor mFrontends[];
+    private RouteDecoderDescriptor mDecoders[];
+    private RouteInputOutputDescriptor mOutputs[];
+    private RouteMassStorageDescriptor mStorages[];
+
+    /**
+     * Capability index: component indices (into descriptor arrays) per component type
+     */
+    private final EnumMap<RouteFrontendType, int[]> mFrontendIndex =
+            new EnumMap<RouteFrontendType, int[]>(RouteFrontendType.class);
+    private final EnumMap<RouteDecoderType, int[]> mDecoderIndex =
+            new EnumMap<RouteDecoderType, int[]>(RouteDecoderType.class);
+    private final EnumMap<RouteInputOutputDeviceType, int[]> mOutputIndex =
+            new EnumMap<RouteInputOutputDeviceType, int[]>(RouteInputOutputDeviceType.class);
+    private static final int[] NO_COMPONENTS = new int[0];
+
+    /**
+     * Indices of all components, for queries that accept any component type
+     */
+    private int mAllFrontends[];
+    private int mAllDecoders[];
+    private int mAllOutputs[];
+
+    /**
+     * Live route cache indices per (frontend type, decoder type, output type) key, null type
+     * in key matches any component. Routes are in frontend, decoder, output order.
+     */
+    private final HashMap<List<Object>, int[]> mLiveRouteIndex = new HashMap<List<Object>, int[]>();
+
+    /**
+     * Source type of the main live route, resolved from the index
+     */
+    private SourceType mMainSourceType = SourceType.UNDEFINED;
+
+    /**
+     * Route caches, indexed the same way the full combination was enumerated before. An entry
+     * stays null until some consumer asks for that route.
+     */
     private InstallRoutes mInstallRoutes[];
     private LiveRoutes mLiveRoutes[];
     private RecordRoutes mRecordRoutes[];
@@ -78,531 +131,815 @@ public class RouteManager {
     }
 
     /**
-     * Initialize routes.
+     * Initialize routes. Only component descriptors are read here, the routes themselves are
+     * requested from MW the first time they are used.
      *
      * @return true if routes initialized correctly, false otherwise
      * @throws RemoteException
      */
-    public boolean initializeRouteIds() throws RemoteException {
+    public synchronized boolean initializeRouteIds() throws RemoteException {
         mLog.d("[initializeRouteIds]");
 
         // 1) Get number of components
-        long feNum = 0;
-        feNum = mDtvManager.getBroadcastRouteControl().getFrontendNumber();
-
-        long storageNum = 0;
-        storageNum = mDtvManager.getBroadcastRouteControl().getMassStorageNumber();
-
-        long decNum = 0;
-        decNum = mDtvManager.getCommonRouteControl().getDecoderNumber();
-
-        long inputOutputNum = 0;
-        inputOutputNum = mDtvManager.getCommonRouteControl().getInputOutputNumber();
+        int feNum = mDtvManager.getBroadcastRouteControl().getFrontendNumber();
+        int storageNum = mDtvManager.getBroadcastRouteControl().getMassStorageNumber();
+        int decNum = mDtvManager.getCommonRouteControl().getDecoderNumber();
+        int inputOutputNum = mDtvManager.getCommonRouteControl().getInputOutputNumber();
 
         mLog.d("[initializeRouteIds][" + feNum + ", " + storageNum
                 + ", " + decNum + ", "
                 + inputOutputNum + ", " + "]");
 
-        // 2) allocate memory
-        int installNum = 0, liveNum = 0, recordNum = 0, playbackNum = 0;
+        // 2) Get component descriptors
+        mFrontends = new RouteFrontendDescriptor[Math.max(feNum, 0)];
+        for (int frontendLoop = 0; frontendLoop < mFrontends.length; frontendLoop++) {
+            mFrontends[frontendLoop] = mDtvManager.getBroadcastRouteControl()
+                    .getFrontendDescriptor(frontendLoop);
+            mLog.d("[initializeRouteIds][frontend descriptior " + frontendLoop + "/"
+                    + feNum + "][" + mFrontends[frontendLoop].getFrontendType() + "]");
+        }
 
-        mInstallRoutes = null;
-        installNum = (int) feNum;
-        if (installNum > 0) {
-            mInstallRoutes = new InstallRoutes[installNum];
+        mDecoders = new RouteDecoderDescriptor[Math.max(decNum, 0)];
+        for (int decoderLoop = 0; decoderLoop < mDecoders.length; decoderLoop++) {
+            mDecoders[decoderLoop] = mDtvManager.getCommonRouteControl()
+                    .getDecoderDescriptor(decoderLoop);
         }
 
-        mLiveRoutes = null;
-        liveNum = (int) feNum * (int) decNum * (int) inputOutputNum;
-        if (liveNum > 0) {
-            mLiveRoutes = new LiveRoutes[liveNum];
+        mOutputs = new RouteInputOutputDescriptor[Math.max(inputOutputNum, 0)];
+        for (int outputLoop = 0; outputLoop < mOutputs.length; outputLoop++) {
+            mOutputs[outputLoop] = mDtvManager.getCommonRouteControl()
+                    .getInputOutputDescriptor(outputLoop);
         }
 
-        mRecordRoutes = null;
-        recordNum = (int) feNum * (int) storageNum;
-        if (recordNum > 0) {
-            mRecordRoutes = new RecordRoutes[recordNum];
+        mStorages = new RouteMassStorageDescriptor[Math.max(storageNum, 0)];
+        for (int storageLoop = 0; storageLoop < mStorages.length; storageLoop++) {
+            mStorages[storageLoop] = mDtvManager.getBroadcastRouteControl()
+                    .getMassStorageDescriptor(storageLoop);
         }
 
-        mPlaybackRoutes = null;
-        playbackNum = (int) storageNum * (int) decNum
-                * (int) inputOutputNum;
-        if (playbackNum > 0) {
-            mPlaybackRoutes = new PlaybackRoutes[playbackNum];
+        // 3) Build capability index
+        buildIndex();
+
+        // 4) Allocate (empty) route caches
+        mInstallRoutes = new InstallRoutes[mFrontends.length];
+        mLiveRoutes = new LiveRoutes[mFrontends.length * mDecoders.length * mOutputs.length];
+        mRecordRoutes = new RecordRoutes[mFrontends.length * mStorages.length];
+        mPlaybackRoutes = new PlaybackRoutes[mStorages.length * mDecoders.length
+                * mOutputs.length];
+
+        // 5) Forget previously resolved route sets
+        mIpPrimaryRoutes = null;
+        mIpSecondaryRoutes = null;
+        mIpPipRoutes = null;
+        mBroadcastRoutes.clear();
+        mPlaybackMainRoute = null;
+        mPlaybackPipRoute = null;
+        mPlaybackRoutesResolved = false;
+
+        return true;
+    }
+
+    /**
+     * Gets install route for frontend, requesting it from MW on first use.
+     */
+    private InstallRoutes getInstallRoutes(int frontendIndex) throws RemoteException {
+        if (mInstallRoutes[frontendIndex] == null) {
+            RouteFrontendDescriptor frontendDesc = mFrontends[frontendIndex];
+            InstallRoutes install = new InstallRoutes();
+            install.route = mDtvManager.getBroadcastRouteControl().getInstallRoute(
+                    frontendDesc.getFrontendId(), DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            install.frontend = frontendDesc;
+            install.demux.setDemuxId(DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            mLog.d("[getInstallRoutes][GetInstallRoute] route: " + install.route);
+            mInstallRoutes[frontendIndex] = install;
         }
+        return mInstallRoutes[frontendIndex];
+    }
 
-        // 3) Install routes
-        int installIndex = 0;
+    /**
+     * Gets live route for frontend, decoder and output, requesting it from MW on first use.
+     */
+    private LiveRoutes getLiveRoutes(int frontendIndex, int decoderIndex, int outputIndex)
+            throws RemoteException {
+        return getLiveRoutes(getLiveIndex(frontendIndex, decoderIndex, outputIndex));
+    }
 
-        mLog.d("[initializeRouteIds] Install routes");
-        for (long frontendLoop = 0; frontendLoop < feNum; frontendLoop++) {
-            RouteFrontendDescriptor frontedDesc;
-            frontedDesc = mDtvManager.getBroadcastRouteControl().getFrontendDescriptor(
-                    (int) frontendLoop);
+    private int getLiveIndex(int frontendIndex, int decoderIndex, int outputIndex) {
+        return (frontendIndex * mDecoders.length + decoderIndex) * mOutputs.length
+                + outputIndex;
+    }
 
-            mInstallRoutes[installIndex] = new InstallRoutes();
-            mInstallRoutes[installIndex].route = mDtvManager.getBroadcastRouteControl()
-                    .getInstallRoute(frontedDesc.getFrontendId(),
-                            DEMUX_ID_NOT_USED_WITH_COMEDIA);
-            mLog.d("[initializeRouteIds][GetInstallRoute] route: "
-                    + mInstallRoutes[installIndex].route);
+    /**
+     * Gets live route by its live route cache index, requesting it from MW on first use.
+     */
+    private LiveRoutes getLiveRoutes(int liveIndex) throws RemoteException {
+        if (mLiveRoutes[liveIndex] == null) {
+            int outputIndex = liveIndex % mOutputs.length;
+            int decoderIndex = liveIndex / mOutputs.length % mDecoders.length;
+            int frontendIndex = liveIndex / mOutputs.length / mDecoders.length;
+            RouteFrontendDescriptor frontendDesc = mFrontends[frontendIndex];
+            RouteDecoderDescriptor decoderDesc = mDecoders[decoderIndex];
+            RouteInputOutputDescriptor outputDesc = mOutputs[outputIndex];
+            LiveRoutes live = new LiveRoutes();
+            live.route = mDtvManager.getBroadcastRouteControl().getLiveRoute(
+                    frontendDesc.getFrontendId(), DEMUX_ID_NOT_USED_WITH_COMEDIA,
+                    decoderDesc.getDecoderId());
+            live.frontend = frontendDesc;
+            live.demux = new RouteDemuxDescriptor(DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            live.decoder = decoderDesc;
+            live.output = outputDesc;
+
+            mLog.d("[getLiveRoutes][Adding live route:" + frontendDesc.getFrontendId()
+                    + ", de:"
+                    + decoderDesc.getDecoderId() + ", out:" + outputDesc.getInputOutputId()
+                    + ", ro:" + live.route + "]");
+            mLiveRoutes[liveIndex] = live;
+        }
+        return mLiveRoutes[liveIndex];
+    }
 
-            mInstallRoutes[installIndex].frontend = frontedDesc;
+    /**
+     * Gets record route for frontend and mass storage, requesting it from MW on first use.
+     */
+    private RecordRoutes getRecordRoutes(int frontendIndex, int storageIndex)
+            throws RemoteException {
+        int recordIndex = frontendIndex * mStorages.length + storageIndex;
+        if (mRecordRoutes[recordIndex] == null) {
+            RouteFrontendDescriptor frontendDesc = mFrontends[frontendIndex];
+            RouteMassStorageDescriptor massStorageDesc = mStorages[storageIndex];
+            RecordRoutes record = new RecordRoutes();
+            record.route = mDtvManager.getBroadcastRouteControl().getRecordRoute(
+                    frontendDesc.getFrontendId(), DEMUX_ID_NOT_USED_WITH_COMEDIA,
+                    massStorageDesc.getMassStorageId());
+            record.frontend = frontendDesc;
+            record.demux = new RouteDemuxDescriptor(DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            record.storage = massStorageDesc;
+
+            mLog.d("[getRecordRoutes][Adding record route ["
+                    + record.route + "]:\n"
+                    + "\tfrontend=" + frontendDesc.getFrontendId() + "\n"
+                    + "\tmassStorage=" + massStorageDesc.getMassStorageId() + "\n"
+                    + "\tdemuxId=" + DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            mRecordRoutes[recordIndex] = record;
+        }
+        return mRecordRoutes[recordIndex];
+    }
 
-            mInstallRoutes[installIndex].demux.setDemuxId(DEMUX_ID_NOT_USED_WITH_COMEDIA);
+    /**
+     * Gets playback route for mass storage, decoder and output, requesting it from MW on first
+     * use.
+     */
+    private PlaybackRoutes getPlaybackRoutes(int storageIndex, int decoderIndex, int outputIndex)
+            throws RemoteException {
+        int playbackIndex = (storageIndex * mDecoders.length + decoderIndex) * mOutputs.length
+                + outputIndex;
+        if (mPlaybackRoutes[playbackIndex] == null) {
+            RouteMassStorageDescriptor massStorageDesc = mStorages[storageIndex];
+            RouteDecoderDescriptor decoderDesc = mDecoders[decoderIndex];
+            RouteInputOutputDescriptor outputDesc = mOutputs[outputIndex];
+            PlaybackRoutes playback = new PlaybackRoutes();
+            playback.route = mDtvManager.getBroadcastRouteControl().getPlaybackRoute(
+                    massStorageDesc.getMassStorageId(), DEMUX_ID_NOT_USED_WITH_COMEDIA,
+                    decoderDesc.getDecoderId());
+            playback.storage = massStorageDesc;
+            playback.demux = new RouteDemuxDescriptor(DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            playback.decoder = decoderDesc;
+            playback.output = outputDesc;
+
+            mLog.d("[getPlaybackRoutes][Adding playback route ["
+                    + playback.route + "]:\n"
+                    + "\toutput: " + outputDesc.getInputOutputId() + "\n"
+                    + "\tmassStorage: " + massStorageDesc.getMassStorageId() + "\n"
+                    + "\tdecoderId: " + decoderDesc.getDecoderId() + "\n"
+                    + "\tdemuxId: " + DEMUX_ID_NOT_USED_WITH_COMEDIA);
+            mPlaybackRoutes[playbackIndex] = playback;
+        }
+        return mPlaybackRoutes[playbackIndex];
+    }
 
-            mLog.d("[initializeRouteIds][frontend descriptior " + frontendLoop + "/"
-                    + feNum + "][" + frontedDesc.getFrontendType() + "]");
-
-            installIndex++;
-        }
-
-        // 4) Live routes
-        int liveIndex = 0;
-        mLog.d("[initializeRouteIds] Live routes");
-        for (long frontendLoop = 0; frontendLoop < feNum; frontendLoop++) {
-            RouteFrontendDescriptor frontedDesc;
-            frontedDesc = mDtvManager.getBroadcastRouteControl().getFrontendDescriptor(
-                    (int) frontendLoop);
-
-            for (long decoderLoop = 0; decoderLoop < decNum; decoderLoop++) {
-                RouteDecoderDescriptor decoderDesc;
-                decoderDesc = mDtvManager.getCommonRouteControl().getDecoderDescriptor(
-                        (int) decoderLoop);
-
-                for (long outputLoop = 0; outputLoop < inputOutputNum; outputLoop++) {
-                    RouteInputOutputDescriptor outputDesc;
-                    outputDesc = mDtvManager.getCommonRouteControl().getInputOutputDescriptor(
-                            (int) outputLoop);
-
-                    mLiveRoutes[liveIndex] = new LiveRoutes();
-                    mLiveRoutes[liveIndex].route = mDtvManager.getBroadcastRouteControl()
-                            .getLiveRoute(
-                                    frontedDesc.getFrontendId(),
-                                    DEMUX_ID_NOT_USED_WITH_COMEDIA, decoderDesc.getDecoderId());
-                    mLiveRoutes[liveIndex].frontend = frontedDesc;
-                    mLiveRoutes[liveIndex].demux = new RouteDemuxDescriptor(
-                            DEMUX_ID_NOT_USED_WITH_COMEDIA);
-                    mLiveRoutes[liveIndex].decoder = decoderDesc;
-                    mLiveRoutes[liveIndex].output = outputDesc;
-
-                    mLog.d("[initializeRouteIds][Adding live route:" + frontedDesc.getFrontendId()
-                            + ", de:"
-                            + decoderDesc.getDecoderId() + ", out:" + outputDesc.getInputOutputId()
-                            + ", ro:" + mLiveRoutes[liveIndex].route + "]");
-
-                    liveIndex++;
+    /**
+     * Builds component indices per frontend, decoder and output type and live route index, and
+     * selects main source type (first of TER, CAB, SAT and IP that has a frontend).
+     */
+    private void buildIndex() {
+        mAllFrontends = allIndices(mFrontends.length);
+        mAllDecoders = allIndices(mDecoders.length);
+        mAllOutputs = allIndices(mOutputs.length);
+
+        mFrontendIndex.clear();
+        for (RouteFrontendType type : RouteFrontendType.values()) {
+            int count = 0;
+            int indices[] = new int[mFrontends.length];
+            for (int i = 0; i < mFrontends.length; i++) {
+                if (mFrontends[i].getFrontendType().contains(type)) {
+                    indices[count++] = i;
                 }
             }
+            mFrontendIndex.put(type, Arrays.copyOf(indices, count));
         }
 
-        // 5. Record routes
-        int recordIndex = 0;
-        mLog.d("[initializeRouteIds] Record routes");
-        // iterate through all frontends
-        for (long frontendLoop = 0; frontendLoop < feNum; frontendLoop++) {
-
-            // create frontend descriptor
-            RouteFrontendDescriptor frontendDesc;
-            frontendDesc = mDtvManager.getBroadcastRouteControl()
-                    .getFrontendDescriptor((int) frontendLoop);
-
-            // iterate through all mass storages
-            for (long storageLoop = 0; storageLoop < storageNum; storageLoop++) {
-
-                // create mass storage descriptor
-                RouteMassStorageDescriptor massStorageDesc;
-                massStorageDesc = mDtvManager.getBroadcastRouteControl().getMassStorageDescriptor(
-                        (int) storageLoop
-                );
-
-                // create record route
-                mRecordRoutes[recordIndex] = new RecordRoutes();
-                mRecordRoutes[recordIndex].route = mDtvManager.getBroadcastRouteControl()
-                        .getRecordRoute(
-                                frontendDesc.getFrontendId(),
-                                DEMUX_ID_NOT_USED_WITH_COMEDIA,
-                                massStorageDesc.getMassStorageId());
-
-                mRecordRoutes[recordIndex].frontend = frontendDesc;
-                mRecordRoutes[recordIndex].demux = new RouteDemuxDescriptor(
-                        DEMUX_ID_NOT_USED_WITH_COMEDIA);
-                mRecordRoutes[recordIndex].storage = massStorageDesc;
-
-                mLog.d("[initializeRouteIds][Adding record route ["
-                        + mRecordRoutes[recordIndex].route + "]:\n"
-                        + "\tfrontend=" + frontendDesc.getFrontendId() + "\n"
-                        + "\tmassStorage=" + massStorageDesc.getMassStorageId() + "\n"
-                        + "\tdemuxId=" + DEMUX_ID_NOT_USED_WITH_COMEDIA);
-
-                recordIndex++;
+        mDecoderIndex.clear();
+        for (RouteDecoderType type : RouteDecoderType.values()) {
+            int count = 0;
+            int indices[] = new int[mDecoders.length];
+            for (int i = 0; i < mDecoders.length; i++) {
+                if (mDecoders[i].getDecoderType() == type) {
+                    indices[count++] = i;
+                }
             }
+            mDecoderIndex.put(type, Arrays.copyOf(indices, count));
         }
 
-        // 6. Playback routes
-        // create all posible playback route
-
-        int playbackIndex = 0;
-        mLog.d("[initializeRouteIds] Playback routes");
-        // iterate through all mass storages
-        for (long storageLoop = 0; storageLoop < storageNum; storageLoop++) {
-
-            // create mass storage (needed as input)
-            RouteMassStorageDescriptor massStorageDesc;
-            massStorageDesc = mDtvManager.getBroadcastRouteControl().getMassStorageDescriptor(
-                    (int) storageLoop);
-
-            // iterate througl all decoders
-            for (long decoderLoop = 0; decoderLoop < decNum; decoderLoop++) {
-
-                // create decoder
-                RouteDecoderDescriptor decoderDesc;
-                decoderDesc = mDtvManager.getCommonRouteControl().getDecoderDescriptor(
-                        (int) decoderLoop);
-
-                // iterate through all outputs
-                for (long outputLoop = 0; outputLoop < inputOutputNum; outputLoop++) {
-
-                    // create output
-                    RouteInputOutputDescriptor outputDesc;
-                    outputDesc = mDtvManager.getCommonRouteControl().getInputOutputDescriptor(
-                            (int) outputLoop);
-
-                    // create playback route
-                    mPlaybackRoutes[playbackIndex] = new PlaybackRoutes();
-                    mPlaybackRoutes[playbackIndex].route = mDtvManager.getBroadcastRouteControl()
-                            .getPlaybackRoute(
-                                    massStorageDesc.getMassStorageId(),
-                                    DEMUX_ID_NOT_USED_WITH_COMEDIA,
-                                    decoderDesc.getDecoderId());
-
-                    mPlaybackRoutes[playbackIndex].storage = massStorageDesc;
-                    mPlaybackRoutes[playbackIndex].demux = new RouteDemuxDescriptor(
-                            DEMUX_ID_NOT_USED_WITH_COMEDIA);
-                    mPlaybackRoutes[playbackIndex].decoder = decoderDesc;
-                    mPlaybackRoutes[playbackIndex].output = outputDesc;
-
-                    mLog.d("[initializeRouteIds][Adding playback route ["
-                            + mPlaybackRoutes[playbackIndex].route + "]:\n"
-                            + "\toutput: " + outputDesc.getInputOutputId() + "\n"
-                            + "\tmassStorage: " + massStorageDesc.getMassStorageId() + "\n"
-                            + "\tdecoderId: " + decoderDesc.getDecoderId() + "\n"
-                            + "\tdemuxId: " + DEMUX_ID_NOT_USED_WITH_COMEDIA);
-
-                    playbackIndex++;
+        mOutputIndex.clear();
+        for (RouteInputOutputDeviceType type : RouteInputOutputDeviceType.values()) {
+            int count = 0;
+            int indices[] = new int[mOutputs.length];
+            for (int i = 0; i < mOutputs.length; i++) {
+                if (mOutputs[i].getInputOutputDeviceType() == type) {
+                    indices[count++] = i;
                 }
             }
+            mOutputIndex.put(type, Arrays.copyOf(indices, count));
         }
 
-        //Go through all install, live, record and playback
-        // routes, check routes type
-        mLog.d("[Check route types]");
-        InstallRoutes ipInstall = null, terInstall = null, ipPipInstall = null,
-                cabInstall = null, satInstall = null;
-        for (InstallRoutes install : mInstallRoutes) {
-            mLog.d("[Route][" + install.toString() + "]");
-            if (install.frontend.getFrontendType().contains(RouteFrontendType.TER)) {
-                terInstall = install;
-                mLog.d("[Route type][" + RouteFrontendType.TER + "]");
-                continue;
-            }
-            if (install.frontend.getFrontendType().contains(RouteFrontendType.CAB)) {
-                mLog.d("[Route type][" + RouteFrontendType.CAB + "]");
-                cabInstall = install;
-                continue;
-            }
-            if (install.frontend.getFrontendType().contains(RouteFrontendType.SAT)) {
-                mLog.d("[Route type][" + RouteFrontendType.SAT + "]");
-                satInstall = install;
-                continue;
-            }
-            if (install.frontend.getFrontendType().contains(RouteFrontendType.IP)) {
-                mLog.d("[Route type][" + RouteFrontendType.IP + "]" + "[FrontendId=" + install.frontend.getFrontendId() + "]");
-                ipInstall = install;
-                continue;
-            }
+        buildLiveRouteIndex();
+
+        mMainSourceType = SourceType.UNDEFINED;
+        if (hasFrontend(RouteFrontendType.TER)) {
+            mMainSourceType = SourceType.TER;
+        } else if (hasFrontend(RouteFrontendType.CAB)) {
+            mMainSourceType = SourceType.CAB;
+        } else if (hasFrontend(RouteFrontendType.SAT)) {
+            mMainSourceType = SourceType.SAT;
+        } else if (hasFrontend(RouteFrontendType.IP)) {
+            mMainSourceType = SourceType.IP;
         }
+        mLog.d("[buildIndex][main source type: " + mMainSourceType + "]");
+    }
 
-        LiveRoutes ipPrimaryLive = null, terLive = null, ipPipLive = null,
-                ipsecondaryLive = null, cabLive = null, satLive = null;
-        for (LiveRoutes live : mLiveRoutes) {
-            if (terLive == null
-                    && live.frontend.getFrontendType().contains(RouteFrontendType.TER)) {
-                terLive = live;
-                continue;
-            }
+    /**
+     * Finds first frontend of given type.
+     *
+     * @return Frontend index, or -1 if there is no such frontend
+     */
+    private int findFrontend(RouteFrontendType type) {
+        int indices[] = mFrontendIndex.get(type);
+        return indices == null || indices.length == 0 ? -1 : indices[0];
+    }
 
-            if (cabLive == null
-                    && live.frontend.getFrontendType().contains(RouteFrontendType.CAB)) {
-                cabLive = live;
-                continue;
-            }
+    private static int[] allIndices(int count) {
+        int indices[] = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
 
-            if (satLive == null
-                    && live.frontend.getFrontendType().contains(RouteFrontendType.SAT)) {
-                satLive = live;
-                continue;
-            }
+    /**
+     * Gets component indices of given type, or all components if type is null.
+     */
+    private static <T> int[] lookup(EnumMap<?, int[]> index, T type, int all[]) {
+        if (type == null) {
+            return all;
+        }
+        int indices[] = index.get(type);
+        return indices == null ? NO_COMPONENTS : indices;
+    }
 
-            if (live.frontend.getFrontendType().contains(RouteFrontendType.IP)) {
-                if (ipPrimaryLive == null) {
-                    ipPrimaryLive = live;
-                    continue;
-                } else {
-                    if (ipPrimaryLive.frontend.getFrontendId() != live.frontend.getFrontendId()
-                            && ipPrimaryLive.decoder.getDecoderId() != live.decoder.getDecoderId()) {
-                        if (ipPipLive == null) {
-                            ipPipLive = live;
-                            continue;
-                        } else if (ipsecondaryLive == null) {
-                            ipsecondaryLive = live;
-                            continue;
+    /**
+     * Gets given types preceded by null, which stands for any type
+     */
+    private static <T> List<T> withAnyType(T types[]) {
+        List<T> result = new ArrayList<T>(types.length + 1);
+        result.add(null);
+        result.addAll(Arrays.asList(types));
+        return result;
+    }
+
+    private static List<Object> getLiveRouteKey(RouteFrontendType frontendType,
+            RouteDecoderType decoderType, RouteInputOutputDeviceType outputType) {
+        return Arrays.<Object> asList(frontendType, decoderType, outputType);
+    }
+
+    /**
+     * Indexes live routes of every frontend, decoder and output type combination, so route
+     * query only has to check which routes are free.
+     */
+    private void buildLiveRouteIndex() {
+        mLiveRouteIndex.clear();
+        for (RouteFrontendType frontendType : withAnyType(RouteFrontendType.values())) {
+            int frontends[] = lookup(mFrontendIndex, frontendType, mAllFrontends);
+            for (RouteDecoderType decoderType : withAnyType(RouteDecoderType.values())) {
+                int decoders[] = lookup(mDecoderIndex, decoderType, mAllDecoders);
+                for (RouteInputOutputDeviceType outputType : withAnyType(
+                        RouteInputOutputDeviceType.values())) {
+                    int outputs[] = lookup(mOutputIndex, outputType, mAllOutputs);
+                    int count = frontends.length * decoders.length * outputs.length;
+                    if (count == 0) {
+                        continue;
+                    }
+                    int liveIndices[] = new int[count];
+                    int i = 0;
+                    for (int fe : frontends) {
+                        for (int dec : decoders) {
+                            for (int out : outputs) {
+                                liveIndices[i++] = getLiveIndex(fe, dec, out);
+                            }
                         }
                     }
+                    mLiveRouteIndex.put(getLiveRouteKey(frontendType, decoderType, outputType),
+                            liveIndices);
                 }
             }
         }
+        mLog.d("[buildLiveRouteIndex][" + mLiveRouteIndex.size() + " keys]");
+    }
 
-        RecordRoutes ipPrimaryRecord = null, terRecord = null, ipPipRecord = null, ipsecondaryRecord = null,
-                satRecord = null, cabRecord = null;
-        for (RecordRoutes record : mRecordRoutes) {
-            if (terRecord == null
-                    && record.frontend.getFrontendType().contains(RouteFrontendType.TER)) {
-                terRecord = record;
-                continue;
-            }
-            if (cabRecord == null
-                    && record.frontend.getFrontendType().contains(RouteFrontendType.CAB)) {
-                cabRecord = record;
-                continue;
-            }
-            if (satRecord == null
-                    && record.frontend.getFrontendType().contains(RouteFrontendType.SAT)) {
-                satRecord = record;
-                continue;
+    /**
+     * Resolves TER, CAB or SAT live, scan and record routes on the first frontend of that type.
+     */
+    private Routes resolveBroadcastRoutes(RouteFrontendType type) {
+        LiveRoutes live = null;
+        InstallRoutes install = null;
+        RecordRoutes record = null;
+        int frontend = findFrontend(type);
+        try {
+            if (frontend >= 0) {
+                install = getInstallRoutes(frontend);
+                if (mDecoders.length > 0 && mOutputs.length > 0) {
+                    live = getLiveRoutes(frontend, 0, 0);
+                }
+                if (mStorages.length > 0) {
+                    record = getRecordRoutes(frontend, 0);
+                }
             }
+        } catch (RemoteException e) {
+            mLog.e("[resolveBroadcastRoutes][" + type + "][error requesting routes]");
+            e.printStackTrace();
+        }
 
-            if (record.frontend.getFrontendType().contains(RouteFrontendType.IP)) {
-                if (ipPrimaryRecord == null) {
-                    ipPrimaryRecord = record;
-                    continue;
-                } else {
-                    if (ipPrimaryRecord.frontend.getFrontendId() != record.frontend.getFrontendId()) {
-                        if (ipPipRecord == null) {
-                            ipPipRecord = record;
-                            continue;
-                        } else if (ipsecondaryRecord == null) {
-                            ipsecondaryRecord = record;
+        if (live == null || install == null || record == null) {
+            mLog.e("[resolveBroadcastRoutes][" + type + " live(" + live + "), scan (" + install
+                    + ") or record (" + record + ") routes are not found!]");
+        } else {
+            mLog.d("[resolveBroadcastRoutes][" + type + " live, scan and record routes are found.]["
+                    + live.route + "][" + install.route + "]["
+                    + record.route + "]");
+        }
+        return new Routes(live, install, record);
+    }
+
+    /**
+     * Resolves IP primary, PIP and secondary routes. The PIP and secondary live routes have to
+     * use both a different frontend and a different decoder than the primary one.
+     */
+    private void resolveIpRoutes() {
+        LiveRoutes ipPrimaryLive = null, ipPipLive = null, ipsecondaryLive = null;
+        RecordRoutes ipPrimaryRecord = null, ipPipRecord = null, ipsecondaryRecord = null;
+        InstallRoutes ipInstall = null, ipPipInstall = null;
+        int primaryFrontend = findFrontend(RouteFrontendType.IP);
+        try {
+            if (primaryFrontend >= 0) {
+                ipInstall = getInstallRoutes(primaryFrontend);
+                if (mDecoders.length > 0 && mOutputs.length > 0) {
+                    ipPrimaryLive = getLiveRoutes(primaryFrontend, 0, 0);
+                }
+                if (mStorages.length > 0) {
+                    ipPrimaryRecord = getRecordRoutes(primaryFrontend, 0);
+                }
+                int primaryFrontendId = mFrontends[primaryFrontend].getFrontendId();
+                for (int fe = 0; fe < mFrontends.length && ipsecondaryLive == null; fe++) {
+                    if (!mFrontends[fe].getFrontendType().contains(RouteFrontendType.IP)
+                            || mFrontends[fe].getFrontendId() == primaryFrontendId) {
+                        continue;
+                    }
+                    for (int dec = 1; dec < mDecoders.length && ipsecondaryLive == null; dec++) {
+                        if (mDecoders[dec].getDecoderId() == mDecoders[0].getDecoderId()) {
                             continue;
                         }
+                        for (int out = 0; out < mOutputs.length; out++) {
+                            if (ipPipLive == null) {
+                                ipPipLive = getLiveRoutes(fe, dec, out);
+                            } else if (ipsecondaryLive == null) {
+                                ipsecondaryLive = getLiveRoutes(fe, dec, out);
+                                break;
+                            }
+                        }
+                    }
+                    if (mStorages.length > 0) {
+                        for (int st = 0; st < mStorages.length; st++) {
+                            if (ipPipRecord == null) {
+                                ipPipRecord = getRecordRoutes(fe, st);
+                            } else if (ipsecondaryRecord == null) {
+                                ipsecondaryRecord = getRecordRoutes(fe, st);
+                            }
+                        }
                     }
                 }
             }
-        }
 
-        PlaybackRoutes mainPlayback = null, pipPlayback = null;
-        for (PlaybackRoutes playback : mPlaybackRoutes) {
-            if (mainPlayback == null) {
-                mainPlayback = playback;
-                continue;
+            // Merge live and scan routes
+            // Create Route objects
+            if (ipPrimaryLive == null || ipInstall == null || ipPrimaryRecord == null) {
+                mLog.e("[resolveIpRoutes][IP primary live, scan or record routes are not found!]");
             } else {
-                if (pipPlayback == null && mainPlayback.decoder != playback.decoder) {
-                    pipPlayback = playback;
-                }
+                mLog.d("[resolveIpRoutes][IP primary live, scan and recort routes are found.]["
+                        + ipPrimaryLive.route + "][" + ipInstall.route
+                        + "][" + ipPrimaryRecord.route + "]");
+                RouteLiveSettings settings = new RouteLiveSettings();
+                EnumSet<RouteComponentType> esComponents = EnumSet
+                        .noneOf(RouteComponentType.class);
+                esComponents.add(RouteComponentType.VIDEO);
+                esComponents.add(RouteComponentType.AUDIO);
+                esComponents.add(RouteComponentType.SUBTITLE);
+                esComponents.add(RouteComponentType.CC);
+                esComponents.add(RouteComponentType.SIMP);
+
+                settings.setComponentSettings(esComponents);
+                settings.setVideoPosition(new VideoPosition());
+                mDtvManager.getBroadcastRouteControl().configureLiveRoute(ipPrimaryLive.route,
+                        settings);
             }
-        }
 
-        // Merge live and scan routes
-        // Create Route objects
-        if (ipPrimaryLive == null || ipInstall == null || ipPrimaryRecord == null) {
-            mLog.e("[initializeRouteIds][IP primary live, scan or record routes are not found!]");
-        } else {
-            mLog.d("[initializeRouteIds][IP primary live, scan and recort routes are found.]["
-                    + ipPrimaryLive.route + "][" + ipInstall.route
-                    + "][" + ipPrimaryRecord.route + "]");
-            RouteLiveSettings settings = new RouteLiveSettings();
-            EnumSet<RouteComponentType> esComponents = EnumSet.noneOf(RouteComponentType.class);
-            esComponents.add(RouteComponentType.VIDEO);
-            esComponents.add(RouteComponentType.AUDIO);
-            esComponents.add(RouteComponentType.SUBTITLE);
-            esComponents.add(RouteComponentType.CC);
-            esComponents.add(RouteComponentType.SIMP);
+            if (ipsecondaryLive == null || ipsecondaryRecord == null) {
+                mLog.e("[resolveIpRoutes][IP secondary live or record routes are not found!]");
+            } else {
+                mLog.d("[resolveIpRoutes][IP secondary live and recort routes are found.]["
+                        + ipsecondaryLive.route + "]["
+                        + ipsecondaryRecord.route + "]");
+            }
 
-            settings.setComponentSettings(esComponents);
-            settings.setVideoPosition(new VideoPosition());
-            mDtvManager.getBroadcastRouteControl().configureLiveRoute((int) ipPrimaryLive.route,
-                    settings);
+            if (ipPipLive == null || ipPipInstall == null || ipPipRecord == null) {
+                mLog.e("[resolveIpRoutes][IP PIP live, scan or record routes are not found!]");
+            } else {
+                mLog.d("[resolveIpRoutes][IP PIP live, scan and record routes found.]["
+                        + ipPipLive.route + "][" + ipPipInstall.route
+                        + "][" + ipPipRecord.route + "]");
+            }
+            if (ipPipLive != null) {
+                RouteLiveSettings settings = new RouteLiveSettings();
+                EnumSet<RouteComponentType> esVideo = EnumSet.noneOf(RouteComponentType.class);
+                esVideo.add(RouteComponentType.VIDEO);
+                settings.setComponentSettings(esVideo);
+                settings.setVideoPosition(new VideoPosition());
+                mDtvManager.getBroadcastRouteControl().configureLiveRoute(ipPipLive.route,
+                        settings);
+            }
+        } catch (RemoteException e) {
+            mLog.e("[resolveIpRoutes][error requesting routes]");
+            e.printStackTrace();
         }
-        mIpPrimaryRoutes = new Routes(ipPrimaryLive, ipInstall, ipPrimaryRecord);
 
-        if (ipsecondaryLive == null || ipsecondaryRecord == null) {
-            mLog.e("[initializeRouteIds][IP secondary live or record routes are not found!]");
-        } else {
-            mLog.d("[initializeRouteIds][IP secondary live and recort routes are found.]["
-                    + ipsecondaryLive.route + "]["
-                    + ipsecondaryRecord.route + "]");
-        }
+        mIpPrimaryRoutes = new Routes(ipPrimaryLive, ipInstall, ipPrimaryRecord);
         mIpSecondaryRoutes = new Routes(ipsecondaryLive, null, ipsecondaryRecord);
+        mIpPipRoutes = new Routes(ipPipLive, ipPipInstall, ipPipRecord);
+    }
 
-        if (ipPipLive == null || ipPipInstall == null || ipPipRecord == null) {
-            mLog.e("[initializeRouteIds][IP PIP live, scan or record routes are not found!]");
-            mIpPipRoutes = new Routes(ipPipLive, ipPipInstall, ipPipRecord);
-        } else {
-            mLog.d("[initializeRouteIds][IP PIP live, scan and record routes found.]["
-                    + ipPipLive.route + "][" + ipPipInstall.route
-                    + "][" + ipPipRecord.route + "]");
-            mIpPipRoutes = new Routes(ipPipLive, ipPipInstall, ipPipRecord);
-            RouteLiveSettings settings = new RouteLiveSettings();
-            EnumSet<RouteComponentType> esVideo = EnumSet.noneOf(RouteComponentType.class);
-            esVideo.add(RouteComponentType.VIDEO);
-            settings.setComponentSettings(esVideo);
-            settings.setVideoPosition(new VideoPosition());
-            mDtvManager.getBroadcastRouteControl().configureLiveRoute((int) ipPipLive.route,
-                    settings);
-        }
-
-        if (terLive == null || terInstall == null || terRecord == null) {
-            mLog.e("[initializeRouteIds][TER live(" + terLive + "), scan (" + terInstall
-                    + ") or record (" + terRecord + ") routes are not found!]");
-        } else {
-            mLog.d("[initializeRouteIds][TER live, scan and record routes are found.]["
-                    + terLive.route + "][" + terInstall.route + "]["
-                    + terRecord.route + "]");
+    /**
+     * Resolves main and PIP playback routes. PIP playback has to use a different decoder.
+     */
+    private void resolvePlaybackRoutes() {
+        mPlaybackRoutesResolved = true;
+        if (mStorages.length == 0 || mDecoders.length == 0 || mOutputs.length == 0) {
+            mLog.e("[resolvePlaybackRoutes][Playback main routes not found!]");
+            return;
+        }
+        try {
+            mPlaybackMainRoute = getPlaybackRoutes(0, 0, 0);
+            mLog.d("[resolvePlaybackRoutes][Playback main routes found.]["
+                    + mPlaybackMainRoute.route + "]");
+            for (int dec = 1; dec < mDecoders.length && mPlaybackPipRoute == null; dec++) {
+                if (mDecoders[dec].getDecoderId() != mDecoders[0].getDecoderId()) {
+                    mPlaybackPipRoute = getPlaybackRoutes(0, dec, 0);
+                }
+            }
+        } catch (RemoteException e) {
+            mLog.e("[resolvePlaybackRoutes][error requesting routes]");
+            e.printStackTrace();
         }
-        mTerLiveRoutes = new Routes(terLive, terInstall, terRecord);
 
-        if (cabLive == null || cabInstall == null || cabRecord == null) {
-            mLog.e("[initializeRouteIds][CAB live(" + cabLive + "), scan (" + cabInstall
-                    + ") or record (" + cabRecord + ") routes are not found!]");
+        if (mPlaybackPipRoute == null) {
+            mLog.e("[resolvePlaybackRoutes][Playback PIP routes not found!]");
         } else {
-            mLog.d("[initializeRouteIds][CAB live, scan and record routes are found.]["
-                    + cabLive.route + "][" + cabInstall.route + "]["
-                    + cabRecord.route + "]");
+            mLog.d("[resolvePlaybackRoutes][Playback PIP routes found.]["
+                    + mPlaybackPipRoute.route + "]");
         }
-        mCabLiveRoutes = new Routes(cabLive, cabInstall, cabRecord);
+    }
 
-        if (satLive == null || satInstall == null || satRecord == null) {
-            mLog.e("[initializeRouteIds][SAT live(" + satLive + "), scan (" + satInstall
-                    + ") or record (" + satRecord + ") routes are not found!]");
-        } else {
-            mLog.d("[initializeRouteIds][SAT live, scan and record routes are found.]["
-                    + satLive.route + "][" + satInstall.route + "]["
-                    + satRecord.route + "]");
+    /**
+     * Re-reads mass storage descriptors after storage was mounted or unmounted. Only record and
+     * playback routes of added or removed storages change, routes of remaining storages are
+     * kept and live and install routes are left untouched.
+     *
+     * @return true if the set of mass storages changed
+     * @throws RemoteException
+     */
+    public synchronized boolean refreshMassStorages() throws RemoteException {
+        int storageNum = mDtvManager.getBroadcastRouteControl().getMassStorageNumber();
+        RouteMassStorageDescriptor storages[] = new RouteMassStorageDescriptor[Math.max(
+                storageNum, 0)];
+        for (int storageLoop = 0; storageLoop < storages.length; storageLoop++) {
+            storages[storageLoop] = mDtvManager.getBroadcastRouteControl()
+                    .getMassStorageDescriptor(storageLoop);
         }
-        mSatLiveRoutes = new Routes(satLive, satInstall, satRecord);
 
-        // Merge playback routes
-        if (mainPlayback == null) {
-            mLog.e("[initializeRouteIds][Playback main routes not found!]");
-        } else {
-            mLog.d("[initializeRouteIds][Playback main routes found.]["
-                    + mainPlayback.route + "]");
-            mPlaybackMainRoute = mainPlayback;
+        // Move already requested routes of remaining storages to their new positions
+        int decNum = mDecoders.length, outNum = mOutputs.length;
+        RecordRoutes records[] = new RecordRoutes[mFrontends.length * storages.length];
+        PlaybackRoutes playbacks[] = new PlaybackRoutes[storages.length * decNum * outNum];
+        int retained = 0;
+        for (int st = 0; st < storages.length; st++) {
+            int old = findStorage(storages[st].getMassStorageId());
+            if (old < 0) {
+                mLog.i("[refreshMassStorages][storage added][" + storages[st] + "]");
+                continue;
+            }
+            retained++;
+            for (int fe = 0; fe < mFrontends.length; fe++) {
+                records[fe * storages.length + st] = mRecordRoutes[fe * mStorages.length + old];
+            }
+            for (int dec = 0; dec < decNum; dec++) {
+                for (int out = 0; out < outNum; out++) {
+                    playbacks[(st * decNum + dec) * outNum + out] =
+                            mPlaybackRoutes[(old * decNum + dec) * outNum + out];
+                }
+            }
         }
+        if (retained == mStorages.length && retained == storages.length) {
+            mLog.d("[refreshMassStorages][no change]");
+            return false;
+        }
+        mLog.i("[refreshMassStorages][storages: " + mStorages.length + " -> "
+                + storages.length + "]");
 
-        if (pipPlayback == null) {
-            mLog.e("[initializeRouteIds][Playback PIP routes not found!]");
-        } else {
-            mLog.d("[initializeRouteIds][Playback PIP routes found.]["
-                    + pipPlayback.route + "]");
-            mPlaybackPipRoute = pipPlayback;
+        mStorages = storages;
+        mRecordRoutes = records;
+        mPlaybackRoutes = playbacks;
+
+        // Rebind record routes of already resolved route sets
+        for (Map.Entry<RouteFrontendType, Routes> entry : mBroadcastRoutes.entrySet()) {
+            entry.setValue(rebindRecordRoute(entry.getValue()));
+        }
+        if (mIpPrimaryRoutes != null) {
+            mIpPrimaryRoutes = rebindRecordRoute(mIpPrimaryRoutes);
+            mIpSecondaryRoutes = rebindRecordRoute(mIpSecondaryRoutes);
+            mIpPipRoutes = rebindRecordRoute(mIpPipRoutes);
         }
 
+        // Playback routes are selected again on next use
+        mPlaybackMainRoute = null;
+        mPlaybackPipRoute = null;
+        mPlaybackRoutesResolved = false;
         return true;
     }
 
+    /**
+     * Finds mass storage by ID.
+     *
+     * @return Storage index, or -1 if there is no such storage
+     */
+    private int findStorage(int massStorageId) {
+        for (int st = 0; st < mStorages.length; st++) {
+            if (mStorages[st].getMassStorageId() == massStorageId) {
+                return st;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates route set with the same live and install routes and record route on the first
+     * mass storage.
+     */
+    private Routes rebindRecordRoute(Routes routes) throws RemoteException {
+        RouteFrontendDescriptor frontendDesc = null;
+        if (routes.getLiveRoute() != null) {
+            frontendDesc = routes.getLiveRoute().frontend;
+        } else if (routes.getInstallRoute() != null) {
+            frontendDesc = routes.getInstallRoute().frontend;
+        } else if (routes.getRecordRoute() != null) {
+            frontendDesc = routes.getRecordRoute().frontend;
+        }
+        if (frontendDesc == null) {
+            return routes;
+        }
+        RecordRoutes record = null;
+        for (int fe = 0; fe < mFrontends.length && mStorages.length > 0; fe++) {
+            if (mFrontends[fe].getFrontendId() == frontendDesc.getFrontendId()) {
+                record = getRecordRoutes(fe, 0);
+                break;
+            }
+        }
+        return new Routes(routes.getLiveRoute(), routes.getInstallRoute(), record);
+    }
+
     /**
      * Return route by service type.
      *
      * @param sourceType Service type to check.
-     * @return Desired route, or 0 if service type is undefined.
+     * @return Desired route, or null if service type is undefined, is not tuned by a
+     *         frontend (PVR) or there is no frontend for it.
      */
-    public Routes getRouteByServiceType(SourceType sourceType) {
-        mLog.d("[getRouteByServiceType]");
+    public synchronized Routes getRouteByServiceType(SourceType sourceType) {
         switch (sourceType) {
             case TER:
-                return getTerRoute();
+                return getBroadcastRoutes(RouteFrontendType.TER);
             case IP:
                 return getIpPrimaryRoute();
             case ANALOG:
+                // Only resolved when index has an analog frontend
+                return hasFrontend(RouteFrontendType.ANALOG)
+                        ? getBroadcastRoutes(RouteFrontendType.ANALOG) : null;
+            case SAT:
+                return getBroadcastRoutes(RouteFrontendType.SAT);
+            case CAB:
+                return getBroadcastRoutes(RouteFrontendType.CAB);
             case PVR:
+            case UNDEFINED:
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets frontend type used for services of given source type.
+     *
+     * @return Frontend type, or null if source type is undefined or is not tuned by a
+     *         frontend (PVR).
+     */
+    public static RouteFrontendType getFrontendType(SourceType sourceType) {
+        switch (sourceType) {
+            case TER:
+                return RouteFrontendType.TER;
+            case IP:
+                return RouteFrontendType.IP;
+            case ANALOG:
+                return RouteFrontendType.ANALOG;
             case SAT:
-		        return getSatRoute();
+                return RouteFrontendType.SAT;
             case CAB:
-                return getCabRoute();
+                return RouteFrontendType.CAB;
+            case PVR:
             case UNDEFINED:
             default:
                 return null;
         }
     }
 
-    public Routes getIpPrimaryRoute() {
-        mLog.d("[getIpPrimaryRoute]");
+    /**
+     * Gets TER, CAB or SAT route set, resolving it on first use.
+     */
+    private Routes getBroadcastRoutes(RouteFrontendType type) {
+        Routes routes = mBroadcastRoutes.get(type);
+        if (routes == null) {
+            routes = resolveBroadcastRoutes(type);
+            mBroadcastRoutes.put(type, routes);
+        }
+        return routes;
+    }
+
+    /**
+     * Checks if there is at least one frontend of given type.
+     */
+    public synchronized boolean hasFrontend(RouteFrontendType type) {
+        return findFrontend(type) >= 0;
+    }
+
+    /**
+     * Gets number of frontends of given type.
+     */
+    public synchronized int getFrontendCount(RouteFrontendType type) {
+        int indices[] = mFrontendIndex.get(type);
+        return indices == null ? 0 : indices.length;
+    }
+
+    /**
+     * Finds live route with requested capabilities, e.g. free live route for SAT with HDMI
+     * output.
+     *
+     * @param frontendType Required frontend type.
+     * @param decoderType  Required decoder type, or null for any decoder.
+     * @param outputType   Required output device type, or null for any output.
+     * @param arbiter      If not null, only routes whose components would be leased for given
+     *                     priority are returned.
+     * @param priority     Priority used for arbiter check.
+     * @return Live route, or null if no route matches.
+     */
+    public synchronized LiveRoutes findLiveRoute(RouteFrontendType frontendType,
+            RouteDecoderType decoderType, RouteInputOutputDeviceType outputType,
+            ResourceArbiter arbiter, ResourceArbiter.Priority priority) {
+        int liveIndices[] = mLiveRouteIndex.get(getLiveRouteKey(frontendType, decoderType,
+                outputType));
+        if (liveIndices == null) {
+            return null;
+        }
+        for (int liveIndex : liveIndices) {
+            int out = liveIndex % mOutputs.length;
+            int dec = liveIndex / mOutputs.length % mDecoders.length;
+            int fe = liveIndex / mOutputs.length / mDecoders.length;
+            if (arbiter != null && !arbiter.isAvailable(mFrontends[fe].getFrontendId(),
+                    mDecoders[dec].getDecoderId(), mOutputs[out].getInputOutputId(),
+                    priority)) {
+                continue;
+            }
+            try {
+                return getLiveRoutes(liveIndex);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Configures components decoded on live route: video only for previews (PIP, mosaic tiles)
+     * or all components for full screen playback. Live routes are shared, so route configured
+     * for preview has to be configured back before it is handed out again.
+     */
+    public void configureLiveComponents(int liveRouteId, boolean allComponents)
+            throws RemoteException {
+        RouteLiveSettings settings = new RouteLiveSettings();
+        EnumSet<RouteComponentType> esComponents = EnumSet.noneOf(RouteComponentType.class);
+        esComponents.add(RouteComponentType.VIDEO);
+        if (allComponents) {
+            esComponents.add(RouteComponentType.AUDIO);
+            esComponents.add(RouteComponentType.SUBTITLE);
+            esComponents.add(RouteComponentType.CC);
+            esComponents.add(RouteComponentType.SIMP);
+        }
+        settings.setComponentSettings(esComponents);
+        settings.setVideoPosition(new VideoPosition());
+        mDtvManager.getBroadcastRouteControl().configureLiveRoute(liveRouteId, settings);
+    }
+
+    public synchronized Routes getIpPrimaryRoute() {
+        if (mIpPrimaryRoutes == null) {
+            resolveIpRoutes();
+        }
         return mIpPrimaryRoutes;
     }
 
-    public Routes getIpSecondaryRoute() {
+    public synchronized Routes getIpSecondaryRoute() {
+        if (mIpSecondaryRoutes == null) {
+            resolveIpRoutes();
+        }
         return mIpSecondaryRoutes;
     }
 
-    public Routes getTerRoute() {
-        mLog.d("[getTerRoute]");
-        return mTerLiveRoutes;
+    public synchronized Routes getIpPipRoute() {
+        if (mIpPipRoutes == null) {
+            resolveIpRoutes();
+        }
+        return mIpPipRoutes;
     }
 
-    public Routes getSatRoute() {
-        mLog.d("[getSatRoute]");
-        return mSatLiveRoutes;
+    public synchronized Routes getTerRoute() {
+        return getBroadcastRoutes(RouteFrontendType.TER);
     }
 
-    public int getMainLiveRouteId() {
-        mLog.d("[getMainLiveRouteId]");
-        if (mTerLiveRoutes.getLiveRoute() != null) {
-            mLog.e("[getMainLiveRoute] TER");
-            return mTerLiveRoutes.getLiveRoute().route;
-        } else if (mCabLiveRoutes.getLiveRoute() != null) {
-            mLog.e("[getMainLiveRoute] CAB");
-            return mCabLiveRoutes.getLiveRoute().route;
-        }
-        return 0;
+    public synchronized Routes getSatRoute() {
+        return getBroadcastRoutes(RouteFrontendType.SAT);
     }
 
-    public LiveRoutes getMainLiveRoute() {
-        mLog.d("[getMainLiveRoute]");
-        if (mTerLiveRoutes.getLiveRoute() != null) {
-            mLog.e("[getMainLiveRoute] TER");
-            return mTerLiveRoutes.getLiveRoute();
-        } else if (mCabLiveRoutes.getLiveRoute() != null) {
-            mLog.e("[getMainLiveRoute] CAB");
-            return mCabLiveRoutes.getLiveRoute();
+    public synchronized PlaybackRoutes getPlaybackMainRoute() {
+        if (!mPlaybackRoutesResolved) {
+            resolvePlaybackRoutes();
         }
-        return null;
+        return mPlaybackMainRoute;
     }
 
-    public SourceType getSourceType() {
-        mLog.d("[getSourceType]");
-        if (mTerLiveRoutes.getInstallRoute() != null) {
-            mLog.e("[getSourceType] TER");
-            return SourceType.TER;
-        } else if (mCabLiveRoutes.getInstallRoute() != null) {
-            mLog.e("[getSourceType] CAB");
-            return SourceType.CAB;
-        } else if (mSatLiveRoutes.getInstallRoute() != null) {
-            mLog.e("[getSourceType] SAT");
-            return SourceType.SAT;
+    public synchronized PlaybackRoutes getPlaybackPipRoute() {
+        if (!mPlaybackRoutesResolved) {
+            resolvePlaybackRoutes();
         }
+        return mPlaybackPipRoute;
+    }
 
-        return SourceType.UNDEFINED;
+    public synchronized int getMainLiveRouteId() {
+        LiveRoutes live = getMainLiveRoute();
+        return live == null ? 0 : live.route;
+    }
+
+    public synchronized LiveRoutes getMainLiveRoute() {
+        Routes routes = getRouteByServiceType(mMainSourceType);
+        return routes == null ? null : routes.getLiveRoute();
+    }
 
+    public synchronized SourceType getSourceType() {
+        return mMainSourceType;
     }
 
-    public Routes getCabRoute() {
-        mLog.d("[getCabRoute]");
-        return mCabLiveRoutes;
+    public synchronized Routes getCabRoute() {
+        return getBroadcastRoutes(RouteFrontendType.CAB);
     }
 
-    public int getMainInstallRouteId() {
-        mLog.d("[getMainInstallRouteId]");
-        return mInstallRoutes[0].route;
+    public synchronized int getMainInstallRouteId() {
+        try {
+            return getInstallRoutes(0).route;
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        return Routes.kINVALID_ROUTE;
     }
 }
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import android.os.SystemClock;
+
+import com.iwedia.dtv.scan.FecType;
+import com.iwedia.dtv.scan.Modulation;
+import com.iwedia.dtv.scan.Polarization;
+import com.iwedia.dtv.service.SourceType;
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scan of a list of transponders, run back to back on install route by
+ * {@link ChannelManager}. Next transponder is programmed as soon as scan of previous one
+ * finishes. Lock time and number of found services are recorded per transponder.
+ */
+public class ScanJob {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME + ScanJob.class.getSimpleName(),
+            Logger.ERROR);
+
+    /**
+     * Tuning parameters of one transponder
+     */
+    public static class Transponder {
+        private final SourceType mType;
+        private final int mFrequency;
+        private final int mSymbolRate;
+        private final Modulation mModulation;
+        private final Polarization mPolarization;
+        private final FecType mFec;
+
+        Transponder(SourceType type, int frequency, int symbolRate,
+                Modulation modulation, Polarization polarization, FecType fec) {
+            mType = type;
+            mFrequency = frequency;
+            mSymbolRate = symbolRate;
+            mModulation = modulation;
+            mPolarization = polarization;
+            mFec = fec;
+        }
+
+        /**
+         * @param frequency Frequency in MHz
+         */
+        public static Transponder terrestrial(int frequency) {
+            return new Transponder(SourceType.TER, frequency, 0, null, null, null);
+        }
+
+        public static Transponder cable(int frequency, Modulation modulation, int symbolRate) {
+            return new Transponder(SourceType.CAB, frequency, symbolRate, modulation, null,
+                    null);
+        }
+
+        public static Transponder satellite(int frequency, Modulation modulation,
+                Polarization polarization, int symbolRate, FecType fec) {
+            return new Transponder(SourceType.SAT, frequency, symbolRate, modulation,
+                    polarization, fec);
+        }
+
+        public SourceType getType() {
+            return mType;
+        }
+
+        public int getFrequency() {
+            return mFrequency;
+        }
+
+        /**
+         * Gets frequency in units of MW scan control and scan callbacks, terrestrial
+         * frequency is in kHz
+         */
+        public int getTunerFrequency() {
+            return mType == SourceType.TER ? mFrequency * 1000 : mFrequency;
+        }
+
+        public int getSymbolRate() {
+            return mSymbolRate;
+        }
+
+        public Modulation getModulation() {
+            return mModulation;
+        }
+
+        public Polarization getPolarization() {
+            return mPolarization;
+        }
+
+        public FecType getFec() {
+            return mFec;
+        }
+
+        /**
+         * Gets key identifying transponder across scans
+         */
+        public String getKey() {
+            return mType + ":" + mFrequency + ":" + mSymbolRate + ":" + mModulation + ":"
+                    + mPolarization;
+        }
+
+        @Override
+        public String toString() {
+            return mType + " " + mFrequency + ", symbol rate: " + mSymbolRate + ", modulation: "
+                    + mModulation + ", polarization: " + mPolarization + ", fec: " + mFec;
+        }
+    }
+
+    /**
+     * Outcome of scan of one transponder
+     */
+    public static class TransponderResult {
+        private final Transponder mTransponder;
+        private final boolean mStarted;
+        private final boolean mSkipped;
+        private final long mLockTime;
+        private final int mServiceCount;
+        private final long mDuration;
+
+        TransponderResult(Transponder transponder, boolean started, boolean skipped,
+                long lockTime, int serviceCount, long duration) {
+            mTransponder = transponder;
+            mStarted = started;
+            mSkipped = skipped;
+            mLockTime = lockTime;
+            mServiceCount = serviceCount;
+            mDuration = duration;
+        }
+
+        public Transponder getTransponder() {
+            return mTransponder;
+        }
+
+        /**
+         * @return False if scan of transponder could not be started
+         */
+        public boolean isStarted() {
+            return mStarted;
+        }
+
+        /**
+         * @return True if transponder was unchanged since last scan and was only validated
+         */
+        public boolean isSkipped() {
+            return mSkipped;
+        }
+
+        /**
+         * @return Time in ms from programming transponder to tuner lock, -1 if it did not lock
+         */
+        public long getLockTime() {
+            return mLockTime;
+        }
+
+        public int getServiceCount() {
+            return mServiceCount;
+        }
+
+        /**
+         * @return Time in ms spent on transponder
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + mTransponder + "] started: " + mStarted + ", skipped: " + mSkipped
+                    + ", lock: " + mLockTime
+                    + " ms, services: " + mServiceCount + ", duration: " + mDuration + " ms";
+        }
+    }
+
+    /**
+     * Listener informed about progress of scan job
+     */
+    public interface IScanJobListener {
+        public void onTransponderFinished(int index, TransponderResult result);
+
+        public void onJobFinished(List<TransponderResult> results);
+    }
+
+    private final List<Transponder> mTransponders;
+    private final IScanJobListener mListener;
+    private final ArrayList<TransponderResult> mResults = new ArrayList<TransponderResult>();
+
+    /**
+     * True if transponders unchanged since last scan are skipped
+     */
+    private boolean mSkipUnchanged = true;
+
+    /**
+     * True if services found are added to existing master list instead of replacing it
+     */
+    private boolean mAppendList;
+
+    /** State of transponder being scanned */
+    private int mIndex = -1;
+    private int mRouteId;
+    private long mStartTime;
+    private long mLockTime;
+    private int mServiceCount;
+    private int mFirstServiceIndex;
+
+    public ScanJob(List<Transponder> transponders, IScanJobListener listener) {
+        mTransponders = new ArrayList<Transponder>(transponders);
+        mListener = listener;
+    }
+
+    /**
+     * Sets if transponders whose services did not change since last scan are only validated
+     * instead of fully scanned. Enabled by default.
+     */
+    public synchronized void setSkipUnchanged(boolean skipUnchanged) {
+        mSkipUnchanged = skipUnchanged;
+    }
+
+    public synchronized boolean isSkipUnchanged() {
+        return mSkipUnchanged;
+    }
+
+    /**
+     * Sets if services found by job are added to existing master list. By default first
+     * scanned transponder rebuilds master list, so services that are gone are removed, and
+     * unchanged transponders are not skipped as their services would be lost.
+     */
+    public synchronized void setAppendList(boolean appendList) {
+        mAppendList = appendList;
+    }
+
+    public synchronized boolean isAppendList() {
+        return mAppendList;
+    }
+
+    IScanJobListener getListener() {
+        return mListener;
+    }
+
+    public List<Transponder> getTransponders() {
+        return Collections.unmodifiableList(mTransponders);
+    }
+
+    /**
+     * Checks if other job scans the same transponders in the same order
+     */
+    public boolean hasSameTransponders(ScanJob other) {
+        if (mTransponders.size() != other.mTransponders.size()) {
+            return false;
+        }
+        for (int i = 0; i < mTransponders.size(); i++) {
+            if (!mTransponders.get(i).getKey().equals(other.mTransponders.get(i).getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restores results of transponders done before job was interrupted, job continues with
+     * first transponder after them
+     */
+    synchronized void restore(List<TransponderResult> results) {
+        mResults.clear();
+        mResults.addAll(results);
+        mIndex = results.size() - 1;
+    }
+
+    /**
+     * Checks if any transponder done so far was scanned, not only validated. Its services are
+     * in master list, so resumed job has to append to it.
+     */
+    synchronized boolean hasScannedTransponder() {
+        for (TransponderResult result : mResults) {
+            if (result.isStarted() && !result.isSkipped()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to next transponder
+     *
+     * @return Next transponder, or null if all transponders are scanned
+     */
+    synchronized Transponder next() {
+        mIndex++;
+        return mIndex < mTransponders.size() ? mTransponders.get(mIndex) : null;
+    }
+
+    /**
+     * Called when scan of current transponder is started on install route
+     *
+     * @param firstServiceIndex Master list size before scan, services found on transponder
+     *            are appended after it
+     */
+    synchronized void transponderStarted(int routeId, int firstServiceIndex) {
+        mRouteId = routeId;
+        mFirstServiceIndex = firstServiceIndex;
+        mStartTime = SystemClock.elapsedRealtime();
+        mLockTime = -1;
+        mServiceCount = 0;
+        mLog.d("[transponderStarted][" + mIndex + "][" + mTransponders.get(mIndex) + "]");
+    }
+
+    /**
+     * Called when scan of current transponder could not be started
+     */
+    void transponderFailed() {
+        TransponderResult result;
+        synchronized (this) {
+            result = new TransponderResult(mTransponders.get(mIndex), false, false, -1, 0, 0);
+            mResults.add(result);
+        }
+        mLog.e("[transponderFailed][" + result + "]");
+        if (mListener != null) {
+            mListener.onTransponderFinished(mIndex, result);
+        }
+    }
+
+    /**
+     * Called when current transponder is validated as unchanged and is not scanned
+     *
+     * @param lockTime Time in ms validation took to lock
+     */
+    void transponderSkipped(long lockTime) {
+        TransponderResult result;
+        int index;
+        synchronized (this) {
+            index = mIndex;
+            result = new TransponderResult(mTransponders.get(mIndex), true, true, lockTime, 0,
+                    lockTime);
+            mResults.add(result);
+        }
+        mLog.i("[transponderSkipped][" + index + "][" + result + "]");
+        if (mListener != null) {
+            mListener.onTransponderFinished(index, result);
+        }
+    }
+
+    synchronized Transponder getCurrentTransponder() {
+        return mIndex >= 0 && mIndex < mTransponders.size() ? mTransponders.get(mIndex) : null;
+    }
+
+    synchronized int getFirstServiceIndex() {
+        return mFirstServiceIndex;
+    }
+
+    synchronized int getRouteId() {
+        return mRouteId;
+    }
+
+    synchronized void onTunerLocked(boolean locked) {
+        if (locked && mLockTime < 0) {
+            mLockTime = SystemClock.elapsedRealtime() - mStartTime;
+        }
+    }
+
+    synchronized void onServiceFound() {
+        mServiceCount++;
+    }
+
+    /**
+     * Called when scan of current transponder finished
+     */
+    void transponderFinished() {
+        TransponderResult result;
+        int index;
+        synchronized (this) {
+            index = mIndex;
+            result = new TransponderResult(mTransponders.get(mIndex), true, false, mLockTime,
+                    mServiceCount, SystemClock.elapsedRealtime() - mStartTime);
+            mResults.add(result);
+        }
+        mLog.i("[transponderFinished][" + index + "][" + result + "]");
+        if (mListener != null) {
+            mListener.onTransponderFinished(index, result);
+        }
+    }
+
+    /**
+     * Called when all transponders are scanned or job is aborted
+     */
+    void finished() {
+        List<TransponderResult> results = getResults();
+        mLog.i("[finished][" + results.size() + " of " + mTransponders.size()
+                + " transponders]");
+        if (mListener != null) {
+            mListener.onJobFinished(results);
+        }
+    }
+
+    /**
+     * Gets results of transponders scanned so far
+     */
+    public synchronized List<TransponderResult> getResults() {
+        return new ArrayList<TransponderResult>(mResults);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import com.iwedia.dtv.scan.FecType;
+import com.iwedia.dtv.scan.Modulation;
+import com.iwedia.dtv.scan.Polarization;
+import com.iwedia.dtv.service.SourceType;
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of scan job saved to app storage after every transponder: transponder list and
+ * results of transponders that are done. Job interrupted by abort, process death or reboot is
+ * resumed from it instead of starting over. Services found on completed transponders are
+ * already in TvProvider and in {@link TransponderCache}.
+ */
+public class ScanJobCheckpoint {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + ScanJobCheckpoint.class.getSimpleName(), Logger.ERROR);
+
+    private static final int MAGIC = 0x53434b50;
+    private static final int VERSION = 1;
+
+    private final File mFile;
+
+    public ScanJobCheckpoint(File file) {
+        mFile = file;
+    }
+
+    public boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * Writes transponders of job and results of transponders done so far. Checkpoint is
+     * written to temporary file first, so interrupted write leaves previous one intact.
+     *
+     * @return True if checkpoint is written
+     */
+    public boolean write(ScanJob job) {
+        List<ScanJob.Transponder> transponders = job.getTransponders();
+        List<ScanJob.TransponderResult> results = job.getResults();
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(transponders.size());
+            for (ScanJob.Transponder transponder : transponders) {
+                writeTransponder(out, transponder);
+            }
+            out.writeInt(results.size());
+            for (ScanJob.TransponderResult result : results) {
+                out.writeBoolean(result.isStarted());
+                out.writeBoolean(result.isSkipped());
+                out.writeLong(result.getLockTime());
+                out.writeInt(result.getServiceCount());
+                out.writeLong(result.getDuration());
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                mLog.e("[write][rename failed]");
+                return false;
+            }
+            mLog.d("[write][" + results.size() + " of " + transponders.size()
+                    + " transponders done]");
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads checkpoint into job that continues with first transponder that is not done
+     *
+     * @return Restored job, or null if there is no valid checkpoint
+     */
+    public ScanJob read(ScanJob.IScanJobListener listener) {
+        if (!mFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                mLog.w("[read][unknown checkpoint format]");
+                return null;
+            }
+            int count = in.readInt();
+            List<ScanJob.Transponder> transponders = new ArrayList<ScanJob.Transponder>(count);
+            for (int i = 0; i < count; i++) {
+                transponders.add(readTransponder(in));
+            }
+            count = in.readInt();
+            if (count > transponders.size()) {
+                mLog.e("[read][checkpoint is damaged]");
+                return null;
+            }
+            List<ScanJob.TransponderResult> results = new ArrayList<ScanJob.TransponderResult>(
+                    count);
+            for (int i = 0; i < count; i++) {
+                boolean started = in.readBoolean();
+                boolean skipped = in.readBoolean();
+                long lockTime = in.readLong();
+                int serviceCount = in.readInt();
+                long duration = in.readLong();
+                results.add(new ScanJob.TransponderResult(transponders.get(i), started, skipped,
+                        lockTime, serviceCount, duration));
+            }
+            ScanJob job = new ScanJob(transponders, listener);
+            job.restore(results);
+            return job;
+        } catch (IOException e) {
+            mLog.e("[read][checkpoint is damaged]");
+        } catch (IllegalArgumentException e) {
+            mLog.e("[read][checkpoint written by other MW version]");
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes checkpoint, called when job is done
+     */
+    public void delete() {
+        mFile.delete();
+    }
+
+    private static void writeTransponder(DataOutputStream out, ScanJob.Transponder transponder)
+            throws IOException {
+        out.writeUTF(transponder.getType().name());
+        out.writeInt(transponder.getFrequency());
+        out.writeInt(transponder.getSymbolRate());
+        writeEnum(out, transponder.getModulation());
+        writeEnum(out, transponder.getPolarization());
+        writeEnum(out, transponder.getFec());
+    }
+
+    private static ScanJob.Transponder readTransponder(DataInputStream in) throws IOException {
+        SourceType type = SourceType.valueOf(in.readUTF());
+        int frequency = in.readInt();
+        int symbolRate = in.readInt();
+        String modulation = in.readUTF();
+        String polarization = in.readUTF();
+        String fec = in.readUTF();
+        return new ScanJob.Transponder(type, frequency, symbolRate,
+                modulation.isEmpty() ? null : Modulation.valueOf(modulation),
+                polarization.isEmpty() ? null : Polarization.valueOf(polarization),
+                fec.isEmpty() ? null : FecType.valueOf(fec));
+    }
+
+    private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+        out.writeUTF(value == null ? "" : value.name());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import java.util.HashMap;
+
+/**
+ * Best signal quality and strength reported by scan callbacks for each scanned frequency.
+ * Signal callbacks carry only route ID, so they are attributed to frequency that route was
+ * tuned to last.
+ */
+public class ScanSignals {
+
+    /**
+     * Score of frequency no signal was recorded for
+     */
+    public static final int UNKNOWN_SCORE = -1;
+
+    private final HashMap<Integer, Integer> mRouteFrequencies = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, int[]> mSignals = new HashMap<Integer, int[]>();
+
+    /**
+     * Called when scan on route tunes to frequency
+     */
+    public synchronized void setFrequency(int routeId, int frequency) {
+        mRouteFrequencies.put(routeId, frequency);
+    }
+
+    public synchronized void setQuality(int routeId, int quality) {
+        int[] signal = getSignal(routeId);
+        if (signal != null) {
+            signal[0] = Math.max(signal[0], quality);
+        }
+    }
+
+    public synchronized void setStrength(int routeId, int strength) {
+        int[] signal = getSignal(routeId);
+        if (signal != null) {
+            signal[1] = Math.max(signal[1], strength);
+        }
+    }
+
+    /**
+     * Gets score of best signal on frequency, quality is compared first and strength breaks
+     * ties
+     *
+     * @return Score, or {@link #UNKNOWN_SCORE} if no signal was recorded for frequency
+     */
+    public synchronized int getScore(int frequency) {
+        int[] signal = mSignals.get(frequency);
+        if (signal == null) {
+            return UNKNOWN_SCORE;
+        }
+        return (Math.min(signal[0], 0x7fff) << 16) | Math.min(signal[1], 0xffff);
+    }
+
+    /**
+     * Forgets signals of previous scan
+     */
+    public synchronized void clear() {
+        mRouteFrequencies.clear();
+        mSignals.clear();
+    }
+
+    private int[] getSignal(int routeId) {
+        Integer frequency = mRouteFrequencies.get(routeId);
+        if (frequency == null) {
+            return null;
+        }
+        int[] signal = mSignals.get(frequency);
+        if (signal == null) {
+            signal = new int[2];
+            mSignals.put(frequency, signal);
+        }
+        return signal;
+    }
+}
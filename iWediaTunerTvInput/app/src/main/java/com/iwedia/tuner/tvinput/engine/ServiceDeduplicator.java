@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps one copy of each DVB service received on more than one transponder or frontend. Copy
+ * with best signal score is kept, the others are remembered as alternates that playback can
+ * fall back to. Services are identified by original network, transport stream and service ID.
+ */
+public class ServiceDeduplicator {
+
+    /**
+     * Channel is not a duplicate and is appended to list
+     */
+    public static final int APPEND = -1;
+
+    /**
+     * Channel is worse copy of channel in list and is dropped
+     */
+    public static final int DROP = -2;
+
+    /**
+     * Copy of service, master list index and signal score
+     */
+    private static class Copy {
+        private final int mServiceId;
+        private final int mScore;
+
+        private Copy(int serviceId, int score) {
+            mServiceId = serviceId;
+            mScore = score;
+        }
+    }
+
+    /**
+     * Service kept in list and its alternates
+     */
+    private static class Entry {
+        private final int mPosition;
+        private Copy mKept;
+        private final ArrayList<Copy> mAlternates = new ArrayList<Copy>(1);
+
+        private Entry(int position, Copy kept) {
+            mPosition = position;
+            mKept = kept;
+        }
+    }
+
+    private static final Comparator<Copy> BEST_FIRST = new Comparator<Copy>() {
+
+        @Override
+        public int compare(Copy first, Copy second) {
+            return first.mScore > second.mScore ? -1 : (first.mScore == second.mScore ? 0 : 1);
+        }
+    };
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private int mDuplicateCount = 0;
+
+    /**
+     * Registers channels already in list, their signal is not known
+     */
+    public void addExisting(List<ChannelDescriptor> channels) {
+        for (int i = 0; i < channels.size(); i++) {
+            ChannelDescriptor channel = channels.get(i);
+            if (isDvbService(channel)) {
+                mEntries.put(channel.getServiceKey(), new Entry(i, new Copy(
+                        channel.getServiceId(), ScanSignals.UNKNOWN_SCORE)));
+            }
+        }
+    }
+
+    /**
+     * Adds channel that would be placed at given list position
+     *
+     * @param score Signal score of channel, copy found first is kept on equal score
+     * @return {@link #APPEND}, {@link #DROP} or position of worse copy that channel replaces
+     */
+    public int add(ChannelDescriptor channel, int score, int position) {
+        if (!isDvbService(channel)) {
+            return APPEND;
+        }
+        String key = channel.getServiceKey();
+        Copy copy = new Copy(channel.getServiceId(), score);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mEntries.put(key, new Entry(position, copy));
+            return APPEND;
+        }
+        mDuplicateCount++;
+        if (score > entry.mKept.mScore) {
+            entry.mAlternates.add(entry.mKept);
+            entry.mKept = copy;
+            return entry.mPosition;
+        }
+        entry.mAlternates.add(copy);
+        return DROP;
+    }
+
+    /**
+     * Gets number of copies that were dropped or replaced
+     */
+    public int getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * Gets master list indices of alternates, best first, keyed by service key
+     */
+    public Map<String, int[]> getAlternates() {
+        HashMap<String, int[]> alternates = new HashMap<String, int[]>();
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            ArrayList<Copy> copies = entry.getValue().mAlternates;
+            if (copies.isEmpty()) {
+                continue;
+            }
+            Collections.sort(copies, BEST_FIRST);
+            int[] serviceIds = new int[copies.size()];
+            for (int i = 0; i < serviceIds.length; i++) {
+                serviceIds[i] = copies.get(i).mServiceId;
+            }
+            alternates.put(entry.getKey(), serviceIds);
+        }
+        return alternates;
+    }
+
+    private static boolean isDvbService(ChannelDescriptor channel) {
+        return channel.getDvbServiceId() != ChannelDescriptor.EC_NOT_AVAILABLE;
+    }
+}
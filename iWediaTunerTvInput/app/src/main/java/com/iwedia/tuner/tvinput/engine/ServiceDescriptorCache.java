@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import android.os.RemoteException;
+
+import com.iwedia.dtv.service.IServiceControl;
+import com.iwedia.dtv.service.ServiceDescriptor;
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of master list service descriptors, keyed by master list index.
+ * Descriptors change only on scan or service list update, so cache has to be invalidated
+ * then.
+ */
+public class ServiceDescriptorCache {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + ServiceDescriptorCache.class.getSimpleName(), Logger.ERROR);
+
+    private final IServiceControl mServiceControl;
+
+    private final LinkedHashMap<Integer, ServiceDescriptor> mDescriptors;
+
+    /**
+     * Incremented on every invalidation, descriptors fetched before it are not cached
+     */
+    private int mGeneration = 0;
+
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+
+    public ServiceDescriptorCache(IServiceControl serviceControl, final int maxSize) {
+        mServiceControl = serviceControl;
+        mDescriptors = new LinkedHashMap<Integer, ServiceDescriptor>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ServiceDescriptor> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets descriptor of master list service, fetching it from MW if it is not cached
+     */
+    public ServiceDescriptor get(int index) throws RemoteException {
+        int generation;
+        synchronized (this) {
+            ServiceDescriptor descriptor = mDescriptors.get(index);
+            if (descriptor != null) {
+                mHitCount++;
+                return descriptor;
+            }
+            mMissCount++;
+            generation = mGeneration;
+        }
+        // Fetch outside of lock so that concurrent misses do not wait for each other
+        ServiceDescriptor descriptor = mServiceControl.getServiceDescriptor(
+                DtvEngine.MASTER_LIST_INDEX, index);
+        synchronized (this) {
+            if (descriptor != null && generation == mGeneration) {
+                mDescriptors.put(index, descriptor);
+            }
+        }
+        return descriptor;
+    }
+
+    /**
+     * Drops descriptor of one master list service
+     */
+    public synchronized void invalidate(int index) {
+        mDescriptors.remove(index);
+        mGeneration++;
+    }
+
+    /**
+     * Drops all descriptors
+     */
+    public synchronized void invalidateAll() {
+        mLog.d("[invalidateAll][" + this + "]");
+        mDescriptors.clear();
+        mGeneration++;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size: " + mDescriptors.size() + ", hits: " + mHitCount + ", misses: "
+                + mMissCount;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.iwedia.tuner.tvinput.engine;
+
+import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
+import com.iwedia.tuner.tvinput.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent record of what was found on each scanned transponder: network, transport stream,
+ * member services and fingerprint of service list. Transponders whose record is still valid
+ * and whose last scan found the same fingerprint as scan before it can be skipped on rescan.
+ * Records are dropped when MW signals network or service list change and when they get older
+ * than {@link #MAX_AGE_MS}, so every transponder is fully re-acquired from time to time.
+ */
+public class TransponderCache {
+
+    /**
+     * Object used to write to logcat output
+     */
+    private final Logger mLog = new Logger(TvService.APP_NAME
+            + TransponderCache.class.getSimpleName(), Logger.ERROR);
+
+    private static final int MAGIC = 0x54525043;
+    private static final int VERSION = 2;
+
+    /**
+     * Age in ms after which transponder is scanned again even if nothing signalled change
+     */
+    private static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * What was found on transponder by its last scan
+     */
+    public static class Record {
+        private final int mNetworkId;
+        private final int mOriginalNetworkId;
+        private final int mTransportStreamId;
+        private final int mFingerprint;
+        private final String[] mServiceKeys;
+        private final long mScanTime;
+        private final int mUnchangedScans;
+
+        private Record(int networkId, int originalNetworkId, int transportStreamId,
+                int fingerprint, String[] serviceKeys, long scanTime, int unchangedScans) {
+            mNetworkId = networkId;
+            mOriginalNetworkId = originalNetworkId;
+            mTransportStreamId = transportStreamId;
+            mFingerprint = fingerprint;
+            mServiceKeys = serviceKeys;
+            mScanTime = scanTime;
+            mUnchangedScans = unchangedScans;
+        }
+
+        public int getNetworkId() {
+            return mNetworkId;
+        }
+
+        public int getOriginalNetworkId() {
+            return mOriginalNetworkId;
+        }
+
+        public int getTransportStreamId() {
+            return mTransportStreamId;
+        }
+
+        /**
+         * Gets hash of identity, name and type of all services on transponder
+         */
+        public int getFingerprint() {
+            return mFingerprint;
+        }
+
+        public List<String> getServiceKeys() {
+            return Arrays.asList(mServiceKeys);
+        }
+
+        public long getScanTime() {
+            return mScanTime;
+        }
+
+        /**
+         * Gets number of scans in a row that found the same fingerprint and network as scan
+         * before them, 0 if last scan found a change or was the first one
+         */
+        public int getUnchangedScans() {
+            return mUnchangedScans;
+        }
+
+        @Override
+        public String toString() {
+            return "nid: " + mNetworkId + ", onid: " + mOriginalNetworkId + ", tsid: "
+                    + mTransportStreamId + ", fingerprint: " + Integer.toHexString(mFingerprint)
+                    + ", services: " + mServiceKeys.length + ", time: " + mScanTime
+                    + ", unchanged scans: " + mUnchangedScans;
+        }
+    }
+
+    private final File mFile;
+
+    /**
+     * Records by transponder key, null until file is read
+     */
+    private HashMap<String, Record> mRecords;
+
+    public TransponderCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Checks if transponder is unchanged since its last scan: it has fresh record that was not
+     * invalidated, its last scan found the same services as scan before it and all services
+     * found on it are still in channel list.
+     *
+     * @param serviceKeys Service keys of current channel list
+     */
+    public synchronized boolean isUnchanged(ScanJob.Transponder transponder,
+            Set<String> serviceKeys) {
+        Record record = getRecords().get(transponder.getKey());
+        if (record == null || record.mServiceKeys.length == 0) {
+            return false;
+        }
+        if (record.mUnchangedScans == 0) {
+            mLog.d("[isUnchanged][not confirmed by rescan][" + transponder + "]");
+            return false;
+        }
+        if (System.currentTimeMillis() - record.mScanTime > MAX_AGE_MS) {
+            mLog.d("[isUnchanged][record expired][" + transponder + "]");
+            return false;
+        }
+        for (String key : record.mServiceKeys) {
+            if (!serviceKeys.contains(key)) {
+                mLog.d("[isUnchanged][" + key + " is missing][" + transponder + "]");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores services found by scan of transponder
+     *
+     * @param networkId Network ID reported by MW for transponder
+     * @return True if services are the same as found by previous scan
+     */
+    public synchronized boolean update(ScanJob.Transponder transponder, int networkId,
+            List<ChannelDescriptor> services) {
+        String[] keys = new String[services.size()];
+        String[] contents = new String[services.size()];
+        int originalNetworkId = ChannelDescriptor.EC_NOT_AVAILABLE;
+        int transportStreamId = ChannelDescriptor.EC_NOT_AVAILABLE;
+        for (int i = 0; i < services.size(); i++) {
+            ChannelDescriptor service = services.get(i);
+            keys[i] = service.getServiceKey();
+            contents[i] = keys[i] + ":" + service.getServiceType() + ":" + service.getName();
+            originalNetworkId = service.getOriginalNetworkId();
+            transportStreamId = service.getTransportStreamId();
+        }
+        // Fingerprint must not depend on order services were found in
+        Arrays.sort(contents);
+        int fingerprint = Arrays.hashCode(contents);
+        Record previous = getRecords().get(transponder.getKey());
+        boolean unchanged = previous != null && previous.mFingerprint == fingerprint
+                && previous.mNetworkId == networkId;
+        Record record = new Record(networkId, originalNetworkId, transportStreamId, fingerprint,
+                keys, System.currentTimeMillis(), unchanged ? previous.mUnchangedScans + 1 : 0);
+        getRecords().put(transponder.getKey(), record);
+        mLog.d("[update][" + transponder + "][" + record + "][unchanged: " + unchanged + "]");
+        return unchanged;
+    }
+
+    public synchronized Record get(ScanJob.Transponder transponder) {
+        return getRecords().get(transponder.getKey());
+    }
+
+    /**
+     * Drops record of transponder
+     */
+    public synchronized void invalidate(ScanJob.Transponder transponder) {
+        getRecords().remove(transponder.getKey());
+    }
+
+    /**
+     * Drops records of all transponders of network
+     */
+    public synchronized void invalidateNetwork(int networkId) {
+        int removed = 0;
+        Iterator<Record> records = getRecords().values().iterator();
+        while (records.hasNext()) {
+            if (records.next().mNetworkId == networkId) {
+                records.remove();
+                removed++;
+            }
+        }
+        mLog.d("[invalidateNetwork][" + networkId + "][" + removed + " records]");
+    }
+
+    /**
+     * Drops records of transponders carrying transport stream
+     */
+    public synchronized void invalidateTransportStream(int originalNetworkId,
+            int transportStreamId) {
+        Iterator<Record> records = getRecords().values().iterator();
+        while (records.hasNext()) {
+            Record record = records.next();
+            if (record.mOriginalNetworkId == originalNetworkId
+                    && record.mTransportStreamId == transportStreamId) {
+                records.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        getRecords().clear();
+    }
+
+    /**
+     * Writes records to file, through temporary file so reader never sees partial file
+     *
+     * @return True if records are written
+     */
+    public boolean save() {
+        HashMap<String, Record> records;
+        synchronized (this) {
+            records = new HashMap<String, Record>(getRecords());
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(records.size());
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                Record record = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(record.mNetworkId);
+                out.writeInt(record.mOriginalNetworkId);
+                out.writeInt(record.mTransportStreamId);
+                out.writeInt(record.mFingerprint);
+                out.writeLong(record.mScanTime);
+                out.writeInt(record.mUnchangedScans);
+                out.writeInt(record.mServiceKeys.length);
+                for (String serviceKey : record.mServiceKeys) {
+                    out.writeUTF(serviceKey);
+                }
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                mLog.e("[save][rename failed]");
+                return false;
+            }
+            mLog.d("[save][" + records.size() + " transponders]");
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets records, reading them from file on first access. Must be called with lock held.
+     */
+    private HashMap<String, Record> getRecords() {
+        if (mRecords == null) {
+            mRecords = read();
+        }
+        return mRecords;
+    }
+
+    private HashMap<String, Record> read() {
+        HashMap<String, Record> records = new HashMap<String, Record>();
+        if (!mFile.exists()) {
+            return records;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                mLog.w("[read][unknown cache format]");
+                return records;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                int networkId = in.readInt();
+                int originalNetworkId = in.readInt();
+                int transportStreamId = in.readInt();
+                int fingerprint = in.readInt();
+                long scanTime = in.readLong();
+                int unchangedScans = in.readInt();
+                String[] serviceKeys = new String[in.readInt()];
+                for (int j = 0; j < serviceKeys.length; j++) {
+                    serviceKeys[j] = in.readUTF();
+                }
+                records.put(key, new Record(networkId, originalNetworkId, transportStreamId,
+                        fingerprint, serviceKeys, scanTime, unchangedScans));
+            }
+            mLog.d("[read][" + records.size() + " transponders]");
+        } catch (IOException e) {
+            mLog.e("[read][cache is damaged, dropping it]");
+            records.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return records;
+    }
+}
@@ -17,10 +17,12 @@ import android.os.RemoteException;
 import com.iwedia.dtv.epg.EpgEvent;
 import com.iwedia.dtv.types.TimeDate;
 import com.iwedia.tuner.tvinput.TvService;
+import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
 import com.iwedia.tuner.tvinput.engine.utils.EpgRunnable;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Runnable class for inserting all EPG data into program Database
@@ -62,23 +64,20 @@ public class EpgFull extends EpgRunnable {
 
     @Override
     public void run() {
-        int channelListSize = 0;
-        try {
-            mDtvManager.getChannelManager().getChannelListSize();
-        } catch (RemoteException e1) {
-            e1.printStackTrace();
-            return;
-        }
-        mLog.d("[EpgFull] channel list zie:" + channelListSize);
+        List<ChannelDescriptor> channels = mDtvManager.getChannelManager()
+                .getAllDatabaseChannels();
+        mLog.d("[EpgFull] channel list size:" + channels.size());
         TimeDate startTime = mDtvManager.getEpgManager().getWindowStartTime();
         TimeDate endTime = mDtvManager.getEpgManager().getWindowEndTime();
         mLog.d("[EpgFull][start time: " + startTime + "]");
         mLog.d("[EpgFull][end time: " + endTime + "]");
         mEpgAcquisitionListener.epgAcquisitionStarted(mFrequency);
-        for (int channelIndex = 0; channelIndex < channelListSize; channelIndex++) {
+        for (ChannelDescriptor channel : channels) {
+            // Programs are written for MW service index of channel, not its position in list
+            int channelIndex = channel.getServiceId();
             ArrayList<EpgEvent> events = null;
             try {
-                events = mDtvManager.getEpgManager().getEpgEvents(mDtvManager.getChannelManager().getChannelByIndex(channelIndex).getServiceId());
+                events = mDtvManager.getEpgManager().getEpgEvents(channelIndex);
             } catch (ParseException e) {
                 e.printStackTrace();
             } catch (IllegalArgumentException e) {
@@ -24,6 +24,7 @@ import com.iwedia.tuner.tvinput.engine.DtvEngine;
 import com.iwedia.tuner.tvinput.engine.utils.EpgRunnable;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -70,10 +71,12 @@ public class EpgNowNext extends EpgRunnable {
         try {
             mLog.i("Getting now");
             now = epgControl.getPresentFollowingEvent(mFilterID, mChannelIndex, EpgEventType.PRESENT_EVENT);
-            addProgram(now, mChannelIndex);
             mLog.i("Getting next");
             next = epgControl.getPresentFollowingEvent(mFilterID, mChannelIndex, EpgEventType.FOLLOWING_EVENT);
-            addProgram(next, mChannelIndex);
+            // All events are written in one batch, existing programs are read once
+            ArrayList<EpgEvent> events = new ArrayList<EpgEvent>();
+            events.add(now);
+            events.add(next);
 
             // TimeDate startTime,
             // TimeDate endTime,
@@ -88,7 +91,7 @@ public class EpgNowNext extends EpgRunnable {
             // boolean scrambled,
             // int numberOfComponents,
             // EpgComponentType[] componentType
-            final int serviceId = mChannelIndex - 3;
+            final int serviceId = mChannelIndex;
             final long shitOffset = 8 * 60 * 60 * 1000L;
             final long second = 1000L;
             final long tenMinutes = 10 * 60 * 1000L;
@@ -127,12 +130,12 @@ public class EpgNowNext extends EpgRunnable {
                         0,
                         new EpgComponentType[] { }
                 );
-                mLog.i("Adding custom program");
-                addProgram(e, mChannelIndex);
+                events.add(e);
 
                 mLog.i("Reassigning time");
                 ts = te;
             }
+            addPrograms(events, mChannelIndex);
         } catch (RemoteException e) {
             mLog.e("epgControl.getPFE");
         }
@@ -10,7 +10,6 @@
  */
 package com.iwedia.tuner.tvinput.engine.utils;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -45,9 +44,10 @@ public abstract class EpgRunnable implements Runnable {
     private static final String DOMAIN = "com.android.tv";
     /** Content rating system */
     private static final String RATING_SYSTEM = "DVB";
-    /** Projection for DB filling */
+    /** Projection for reading program time windows */
     private static final String[] projection = {
-            TvContract.Programs.COLUMN_TITLE
+            TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS,
+            TvContract.Programs.COLUMN_END_TIME_UTC_MILLIS
     };
     protected int mServiceIndex;
     protected Long mFrequency;
@@ -154,70 +154,82 @@ public abstract class EpgRunnable implements Runnable {
         }
     }
 
+    /**
+     * Offset added to event times, PF events of test stream are from 6th December 2012
+     */
+    private static final long EVENT_TIME_OFFSET_MS = 1518024600000L - 1354752000000L;
+
+    /**
+     * Time windows of programs of one channel, events overlapping them are not written again
+     */
+    private static class ProgramWindows {
+        private final ArrayList<long[]> mWindows = new ArrayList<long[]>();
+
+        private void add(long startTime, long endTime) {
+            mWindows.add(new long[] {
+                    startTime, endTime
+            });
+        }
+
+        /**
+         * Same overlap rule as TvProvider time window query, bounds are inclusive
+         */
+        private boolean overlaps(long startTime, long endTime) {
+            for (long[] window : mWindows) {
+                if (window[0] <= endTime && window[1] >= startTime) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static long getStartTime(EpgEvent event) {
+        return event.getStartTime().getCalendar().getTimeInMillis() + EVENT_TIME_OFFSET_MS;
+    }
+
+    private static long getEndTime(EpgEvent event) {
+        return event.getEndTime().getCalendar().getTimeInMillis() + EVENT_TIME_OFFSET_MS;
+    }
+
     /**
      * This method is used to conver EPG event to content values needed for DB
      * @param event EPG event
      * @param channelIndex MW channel index
-     * @return
+     * @param channelId TvProvider ID of channel
+     * @param existing Programs of channel already in DB or in this batch, event is added to
+     *                 them
+     * @return Content values, or null if program overlaps existing one
      * @throws RemoteException
      */
-    private ContentValues makeProgramContentValues(EpgEvent event, int channelIndex) throws RemoteException {
+    private ContentValues makeProgramContentValues(EpgEvent event, int channelIndex,
+            long channelId, ProgramWindows existing) throws RemoteException {
         mLog.d("[makeProgramContentValues] event [" + event + "] channelIndex:" + channelIndex);
-        // ODOT: Adjust start and end time since PF events are from 6th December 2012
-        // ODOT: Create content rating
-        // ODOT: convert genre
-        // ODOT: Get extended description from MW
-        // ODOT: Create EPG program by using EpgProgram.Builder
-        // Required fields are: ChannelId, title, canonical genre, description,
-        // long description, start time, end time, content ratings
-        ChannelDescriptor cd = mDtvManager.getChannelManager().getChannelByIndex(channelIndex);
-        int channelId = channelIndex - 3;
+        long startTime = getStartTime(event);
+        long endTime = getEndTime(event);
+        mLog.i("Should start at " + new Date(startTime) + " and end at " + new Date(endTime));
+        if (existing.overlaps(startTime, endTime)) {
+            mLog.i("Already exists!");
+            return null;
+        }
 
         EpgProgram.Builder builder = new EpgProgram.Builder();
-        mLog.i("Setting chanelid " + channelId + " for China");
         builder.setChannelId(channelId);
-        mLog.i("Setting title " + event.getName() + " for China");
         builder.setTitle(event.getName());
-        mLog.i("Setting genre " + convertDVBGenre(event.getGenre()) + " for China");
         builder.setCanonicalGenres(convertDVBGenre(event.getGenre()));
-        mLog.i("Setting sdesc " + event.getDescription() + " for China");
         builder.setDescription(event.getDescription());
-        String desc = mDtvManager.getEpgManager().getEventExtendedDescription(event.getEventId(), channelId);
-        mLog.i("Setting ldesc " + desc + " for China");
+        String desc = mDtvManager.getEpgManager().getEventExtendedDescription(event.getEventId(), channelIndex);
         builder.setLongDescription(desc);
-
-        final long nowTime = 1518024600000L;
-        final long theirTime = 1354752000000L;
-        final long offset = nowTime - theirTime;
-        mLog.i("Now time is " + new Date(nowTime));
-        mLog.i("Their time is " + new Date(theirTime));
-
-        mLog.i("Shit time calculations");
-        long ogStartWTF = event.getStartTime().getCalendar().getTimeInMillis();
-        long ogEndWTF = event.getEndTime().getCalendar().getTimeInMillis();
-        mLog.i("ogStart " + new Date(ogStartWTF) + " ogEnd " + new Date(ogEndWTF));
-        Date now = new Date();
-        long startWTF = ogStartWTF + offset;
-        long endWTF = ogEndWTF + offset;
-        mLog.i("Should start at " + new Date(startWTF) + " and end at " + new Date(endWTF));
-        if (checkifExist(channelId, startWTF, endWTF)) {
-            mLog.i("Already exists!");
-            return null;
-        }
-
-        builder.setStartTimeUtcMillis(startWTF);
-        builder.setEndTimeUtcMillis(endWTF);
+        builder.setStartTimeUtcMillis(startTime);
+        builder.setEndTimeUtcMillis(endTime);
 
         TvContentRating[] ratings = new TvContentRating[1];
         String rating = convertDVBRating(event.getParentalRate());
         ratings[0] = TvContentRating.createRating(DOMAIN, RATING_SYSTEM, rating);
         builder.setContentRatings(ratings);
 
-        mLog.i("I build for China");
         EpgProgram program = builder.build();
-
-        // ODOT: Return actual value
-        mLog.i("I return values for China");
+        existing.add(startTime, endTime);
         return program.toContentValues();
     }
 
@@ -225,59 +237,74 @@ public abstract class EpgRunnable implements Runnable {
      * This method is used to insert single program
      * @param event EPG event that is beeing added to DB
      * @param channelIndex MW channel index
-     * @return
+     * @return True if program is inserted
      * @throws RemoteException
      */
     protected boolean addProgram(EpgEvent event, int channelIndex) throws RemoteException {
-        // ODOT: Convert program to content values (makeProgramContentValues)
-        // ODOT: Insert content values to Tv Provider DB (Table URI: TvContract.Programs.CONTENT_URI)
-        mLog.i("Converting to contentvalues");
-        ContentValues values = makeProgramContentValues(event, channelIndex);
-        if (values == null)
-            return false;
-        ContentResolver resolver = mContext.getContentResolver();
-        Uri uri = TvContract.Programs.CONTENT_URI;
-        mLog.i("inserting at Uri " + uri);
-
-        Uri ruri = resolver.insert(uri, values);
-        mLog.i("RUri is " + ruri);
-        return ruri != null;
+        ArrayList<EpgEvent> events = new ArrayList<EpgEvent>(1);
+        events.add(event);
+        return addPrograms(events, channelIndex) > 0;
     }
 
     /**
-     * This method is used to add multiple programs
+     * This method is used to add multiple programs of one channel. Programs already in DB are
+     * read with one query for time window of all events, events overlapping them or each
+     * other are skipped.
      * @param events event list
      * @param channelIndex channel index
+     * @return Number of inserted programs
      * @throws RemoteException
      */
-    protected void addPrograms(ArrayList<EpgEvent> events, int channelIndex) throws RemoteException {
+    protected int addPrograms(ArrayList<EpgEvent> events, int channelIndex) throws RemoteException {
+        long channelId = mChannelManager.getChannelIdByMwIndex(channelIndex);
+        if (channelId == ChannelDescriptor.EC_NOT_AVAILABLE) {
+            mLog.w("[addPrograms][no channel for MW index " + channelIndex + "]");
+            return 0;
+        }
+        if (events.isEmpty()) {
+            return 0;
+        }
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (EpgEvent event : events) {
+            from = Math.min(from, getStartTime(event));
+            to = Math.max(to, getEndTime(event));
+        }
+        ProgramWindows existing = getProgramWindows(channelId, from, to);
         ArrayList<ContentValues> list = new ArrayList<ContentValues>();
         for (EpgEvent event : events) {
-            ContentValues values = makeProgramContentValues(event, channelIndex);
+            ContentValues values = makeProgramContentValues(event, channelIndex, channelId,
+                    existing);
             if (values != null) {
                 list.add(values);
             }
         }
+        if (list.isEmpty()) {
+            return 0;
+        }
         ContentValues array[] = new ContentValues[list.size()];
         list.toArray(array);
-        mContext.getContentResolver().bulkInsert(TvContract.Programs.CONTENT_URI, array);
+        return mContext.getContentResolver().bulkInsert(TvContract.Programs.CONTENT_URI, array);
     }
 
     /**
-     * This method is used to check if the current event is already present in the DB
-     *
-     * @return True if the program is present in the DB, false otherwise
+     * Reads programs of channel overlapping given time window from DB
      */
-    protected boolean checkifExist(long channelID, long startTime, long endTime) {
+    private ProgramWindows getProgramWindows(long channelID, long startTime, long endTime) {
+        ProgramWindows windows = new ProgramWindows();
         Uri uri = TvContract.buildProgramsUriForChannel(channelID, startTime, endTime);
         Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
-        if (cursor == null || cursor.getCount() == 0) {
-            cursor.close();
-            mLog.w("[checkifExist][item does not exist in DB][[uri: " + uri.toString() + "]");
-            return false;
-        } else {
+        if (cursor == null) {
+            mLog.w("[getProgramWindows][query failed][uri: " + uri + "]");
+            return windows;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                windows.add(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
             cursor.close();
-            return true;
         }
+        return windows;
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 iWedia S.A. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.iwedia.tuner.tvinput.ui;
+
+import android.view.Choreographer;
+
+/**
+ * Scan state aggregated from scan callbacks. Callbacks update it on binder threads, listener
+ * receives copy of the state on UI thread at most once per frame, no matter how many events
+ * arrived in between.
+ */
+public class ScanProgress {
+
+    /**
+     * Listener that receives scan state on UI thread
+     */
+    public interface IScanProgressListener {
+        public void onScanProgress(ScanProgress progress);
+    }
+
+    private final IScanProgressListener mListener;
+    private final Choreographer mChoreographer;
+
+    /**
+     * True while frame callback is posted and state is not delivered yet
+     */
+    private boolean mFramePending;
+
+    private int mTvCount;
+    private int mRadioCount;
+    private int mDataCount;
+    private int mFrequency;
+    private int mProgress;
+    private int mSignalQuality;
+    private int mSignalStrength;
+    private int mSignalBer;
+    private boolean mLocked;
+    private boolean mFinished;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            ScanProgress progress;
+            synchronized (ScanProgress.this) {
+                mFramePending = false;
+                progress = new ScanProgress(ScanProgress.this);
+            }
+            mListener.onScanProgress(progress);
+        }
+    };
+
+    /**
+     * Must be created on UI thread, listener is called on thread progress is created on.
+     */
+    public ScanProgress(IScanProgressListener listener) {
+        mListener = listener;
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Creates copy of state that is handed to listener
+     */
+    private ScanProgress(ScanProgress other) {
+        mListener = null;
+        mChoreographer = null;
+        mTvCount = other.mTvCount;
+        mRadioCount = other.mRadioCount;
+        mDataCount = other.mDataCount;
+        mFrequency = other.mFrequency;
+        mProgress = other.mProgress;
+        mSignalQuality = other.mSignalQuality;
+        mSignalStrength = other.mSignalStrength;
+        mSignalBer = other.mSignalBer;
+        mLocked = other.mLocked;
+        mFinished = other.mFinished;
+    }
+
+    /**
+     * Clears state before new scan
+     */
+    public synchronized void reset() {
+        mTvCount = 0;
+        mRadioCount = 0;
+        mDataCount = 0;
+        mFrequency = 0;
+        mProgress = 0;
+        mSignalQuality = 0;
+        mSignalStrength = 0;
+        mSignalBer = 0;
+        mLocked = false;
+        mFinished = false;
+        scheduleDelivery();
+    }
+
+    public synchronized void tvServiceFound() {
+        mTvCount++;
+        scheduleDelivery();
+    }
+
+    public synchronized void radioServiceFound() {
+        mRadioCount++;
+        scheduleDelivery();
+    }
+
+    public synchronized void dataServiceFound() {
+        mDataCount++;
+        scheduleDelivery();
+    }
+
+    public synchronized void setFrequency(int frequency) {
+        mFrequency = frequency;
+        scheduleDelivery();
+    }
+
+    public synchronized void setProgress(int progress) {
+        mProgress = progress;
+        scheduleDelivery();
+    }
+
+    public synchronized void setSignalQuality(int quality) {
+        mSignalQuality = quality;
+        scheduleDelivery();
+    }
+
+    public synchronized void setSignalStrength(int strength) {
+        mSignalStrength = strength;
+        scheduleDelivery();
+    }
+
+    public synchronized void setSignalBer(int ber) {
+        mSignalBer = ber;
+        scheduleDelivery();
+    }
+
+    public synchronized void setLocked(boolean locked) {
+        mLocked = locked;
+        scheduleDelivery();
+    }
+
+    /**
+     * Marks scan finished on all frontends
+     */
+    public synchronized void finish() {
+        mFinished = true;
+        scheduleDelivery();
+    }
+
+    /**
+     * Posts frame callback unless one is already pending. Must be called with lock held.
+     */
+    private void scheduleDelivery() {
+        if (mFramePending) {
+            return;
+        }
+        mFramePending = true;
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    public int getTvCount() {
+        return mTvCount;
+    }
+
+    public int getRadioCount() {
+        return mRadioCount;
+    }
+
+    public int getDataCount() {
+        return mDataCount;
+    }
+
+    /**
+     * Gets number of all found services
+     */
+    public int getServiceCount() {
+        return mTvCount + mRadioCount + mDataCount;
+    }
+
+    public int getFrequency() {
+        return mFrequency;
+    }
+
+    public int getProgress() {
+        return mProgress;
+    }
+
+    public int getSignalQuality() {
+        return mSignalQuality;
+    }
+
+    public int getSignalStrength() {
+        return mSignalStrength;
+    }
+
+    public int getSignalBer() {
+        return mSignalBer;
+    }
+
+    public boolean isLocked() {
+        return mLocked;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    @Override
+    public String toString() {
+        return "tv: " + mTvCount + ", radio: " + mRadioCount + ", data: " + mDataCount
+                + ", frequency: " + mFrequency + ", progress: " + mProgress + "%, quality: "
+                + mSignalQuality + ", strength: " + mSignalStrength + ", ber: " + mSignalBer
+                + ", locked: " + mLocked + ", finished: " + mFinished;
+    }
+}
@@ -27,6 +27,7 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.iwedia.dtv.scan.IScanCallback;
 import com.iwedia.dtv.scan.Modulation;
@@ -41,8 +42,12 @@ import com.iwedia.tuner.tvinput.data.ChannelDescriptor;
 import com.iwedia.tuner.tvinput.engine.ChannelManager;
 import com.iwedia.tuner.tvinput.engine.DtvEngine;
 import com.iwedia.tuner.tvinput.engine.RouteManager;
+import com.iwedia.tuner.tvinput.engine.ScanJob;
 import com.iwedia.tuner.tvinput.utils.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Setup activity for this TvInput.
  */
@@ -56,8 +61,6 @@ public class SetupActivity extends Activity {
 
     private static final int ON_INIT_TEXT = 0;
 
-    private static final int ON_NEW_CHANNEL_FOUND = 1;
-
     private static final int ON_SCAN_START = 2;
 
     private static final int ON_SCAN_START_NIT = 3;
@@ -68,11 +71,16 @@ public class SetupActivity extends Activity {
 
     private static final int ON_SETUP_FINISHED = 6;
 
+    private static final int ON_SCAN_REFUSED = 7;
+
     private enum ScanState {
         IDLE, SCANNING_MANUAL
     }
 
-    private static ScanState mScanState;
+    /**
+     * Scan state, accessed only on UI thread
+     */
+    private ScanState mScanState;
     private static DtvEngine mDtvEngine = null;
     private static boolean isCallbackRegistered;
     public static boolean isAlreadyScanned = false;
@@ -81,7 +89,8 @@ public class SetupActivity extends Activity {
     private String mSubtitleText;
     private int mChannelCounter;
     private Handler mHandler;
-    private Object mLocker;
+    private ScanProgress mScanProgress;
+    private TextView mScanTitle;
     private int mScanCallbackId = 0;
     private boolean scanSuccessful = false;
     private EditText mFreqEditText;
@@ -118,6 +127,7 @@ public class SetupActivity extends Activity {
         TextView title = new TextView(this);
         // You Can Customise your Title here
         title.setText("SCANNING ...");
+        mScanTitle = title;
         title.setBackgroundColor(Color.WHITE);
         title.setPadding(10, 10, 10, 10);
         title.setGravity(Gravity.CENTER);
@@ -149,15 +159,12 @@ public class SetupActivity extends Activity {
                     case ON_INIT_TEXT:
                         mSubtitleText = (String) msg.obj;
 
-                        break;
-                    case ON_NEW_CHANNEL_FOUND:
-                        synchronized (mLocker) {
-                            mChannelCounter++;
-                            String temp = mSubtitleText + "\n"
-                                    + "DVB channels found: " + mChannelCounter + "\n";
-                        }
                         break;
                     case ON_SCAN_START:
+                        if (mScanState != ScanState.SCANNING_MANUAL) {
+                            // Already refused
+                            break;
+                        }
                         mSubtitleText += "\n" + "Scan started";
                         displayAlertDialog();
                         break;
@@ -170,12 +177,24 @@ public class SetupActivity extends Activity {
                     case ON_SETUP_FINISHED:
                         mLog.d("[Handler][Finish setup activity]");
                         break;
+                    case ON_SCAN_REFUSED:
+                        // Scan gives way to live playback and recording on the same frontend
+                        mLog.i("mHandler - on scan refused");
+                        mScanState = ScanState.IDLE;
+                        if (alert != null) {
+                            alert.dismiss();
+                        }
+                        mStartScanButton.setEnabled(true);
+                        Toast.makeText(SetupActivity.this,
+                                "Tuner is busy, stop live TV and scan again",
+                                Toast.LENGTH_LONG).show();
+                        break;
                 }
             }
         };
 
         mScanState = ScanState.IDLE;
-        mLocker = new Object();
+        mScanProgress = new ScanProgress(mScanProgressListener);
         mDtvEngine = DtvEngine.getInstance();
 
         if (mDtvEngine == null) {
@@ -240,6 +259,7 @@ public class SetupActivity extends Activity {
                 mHandler.sendMessage(msg);
                 mLog.d("[onClickScanAction] 2");
                 mChannelCounter = 0;
+                mScanProgress.reset();
 
                 if (mDtvEngine == null) {
                     mLog.d("[onClickScanAction] mDtvEngine == null");
@@ -250,36 +270,66 @@ public class SetupActivity extends Activity {
                     mLog.d("[onClickScanAction] mRouteManager == null");
                 }
 
-                if (mRouteManager.getSourceType() == SourceType.TER) {
-                    // Terrestrial scan
-                } else if (mRouteManager.getSourceType() == SourceType.CAB) {
-                    // Cable scan
-
-                } else if (mRouteManager.getSourceType() == SourceType.SAT) {
+                if (mRouteManager.getSourceType() != SourceType.SAT
+                        || mFreqEditText.getText().toString().trim().isEmpty()) {
+                    // Auto scan of every frontend type, all services end up in one list
+                    mLog.d("[onClickScanAction] auto scan");
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (!mDtvEngine.getChannelManager().startAutoScanAll()) {
+                                    mHandler.sendEmptyMessage(ON_SCAN_REFUSED);
+                                }
+                            } catch (RemoteException e) {
+                                e.printStackTrace();
+                                mScanProgress.finish();
+                            }
+                        }
+                    }).start();
+                } else {
                     mLog.d("[onClickScanAction] SAT");
+                    // Comma separated frequencies are scanned one after another
+                    String[] freqs = mFreqEditText.getText().toString().split(",");
+                    Modulation modulation = Modulation.MODULATION_QPSK;
+                    if ("8PSK".equals(mModulation.getSelectedItem().toString())) {
+                        modulation = Modulation.MODULATION_8PSK;
+                    }
+                    final List<ScanJob.Transponder> transponders =
+                            new ArrayList<ScanJob.Transponder>();
+                    try {
+                        int symRate = Integer.valueOf(mSymRateEditText.getText().toString()
+                                .trim());
+                        for (String freq : freqs) {
+                            transponders.add(ScanJob.Transponder.satellite(
+                                    Integer.valueOf(freq.trim()), modulation,
+                                    Polarization.VERTICAL, symRate, FecType.FEC_5_6));
+                        }
+                    } catch (NumberFormatException e) {
+                        mLog.w("[onClickScanAction][invalid frequency or symbol rate]");
+                        Toast.makeText(this, "Enter frequencies and symbol rate as numbers",
+                                Toast.LENGTH_LONG).show();
+                        return;
+                    }
                     new Thread(new Runnable() {
                         @Override
                         public void run() {
                             try {
-				                int freq = Integer.valueOf(mFreqEditText.getText().toString());
-                                int symRate = Integer.valueOf(mSymRateEditText.getText().toString());
-				                Modulation modulation = Modulation.MODULATION_QPSK;
-				                if ("QPSK".equals(mModulation.getSelectedItem().toString())) {
-                                    modulation = Modulation.MODULATION_QPSK;
-                                } else if ("8PSK".equals(mModulation.getSelectedItem().toString())) {
-					                modulation = Modulation.MODULATION_8PSK;
-				            }
-                                mDtvEngine.getChannelManager().startManualScanSat(freq, modulation, Polarization.VERTICAL, symRate, FecType.FEC_5_6);
+                                if (!mDtvEngine.getChannelManager().startScanJob(
+                                        new ScanJob(transponders, mScanJobListener))) {
+                                    mScanProgress.finish();
+                                }
                             } catch (RemoteException e) {
                                 e.printStackTrace();
+                                mScanProgress.finish();
                             }
                         }
                     }).start();
+                }
 
-                    mScanState = ScanState.SCANNING_MANUAL;
-                    mHandler.sendEmptyMessage(ON_SCAN_START);
-                    mLog.d("[onClickScanAction] 5");
-		}
+                mScanState = ScanState.SCANNING_MANUAL;
+                mHandler.sendEmptyMessage(ON_SCAN_START);
+                mLog.d("[onClickScanAction] 5");
 
                 break;
             case SCANNING_MANUAL:
@@ -306,6 +356,60 @@ public class SetupActivity extends Activity {
         SetupActivity.this.finish();
     }
 
+    /**
+     * Receives aggregated scan state on UI thread, at most once per frame
+     */
+    private ScanProgress.IScanProgressListener mScanProgressListener = new ScanProgress.IScanProgressListener() {
+
+        @Override
+        public void onScanProgress(ScanProgress progress) {
+            mLog.d("[onScanProgress][" + progress + "]");
+            mChannelCounter = progress.getServiceCount();
+            if (mScanTitle != null) {
+                mScanTitle.setText("SCANNING ... " + progress.getProgress() + "%\n"
+                        + "Frequency: " + progress.getFrequency() + "\n"
+                        + "DVB channels found: " + mChannelCounter);
+            }
+            if (progress.isFinished() && mScanState == ScanState.SCANNING_MANUAL) {
+                onClickScanAction(null);
+                mLog.i("[onScanProgress][Scan finished]");
+            }
+        }
+    };
+
+    private ScanJob.IScanJobListener mScanJobListener = new ScanJob.IScanJobListener() {
+
+        @Override
+        public void onTransponderFinished(int index, ScanJob.TransponderResult result) {
+            mLog.i("[onTransponderFinished][" + index + "][" + result + "]");
+        }
+
+        @Override
+        public void onJobFinished(List<ScanJob.TransponderResult> results) {
+            mLog.i("[onJobFinished][" + results.size() + " transponders]");
+            if (!isAnyStarted(results)) {
+                mHandler.sendEmptyMessage(ON_SCAN_REFUSED);
+                return;
+            }
+            // Channel list is already updated, also when all transponders were skipped and
+            // no scan finished callback came
+            isAlreadyScanned = true;
+            mScanProgress.finish();
+        }
+    };
+
+    /**
+     * Checks if scan of any transponder was started, none is when frontend is busy
+     */
+    private static boolean isAnyStarted(List<ScanJob.TransponderResult> results) {
+        for (ScanJob.TransponderResult result : results) {
+            if (result.isStarted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private IScanCallback mScanCallback = new IScanCallback.Stub() {
         @Override
         public void antennaConnected(int routeId, boolean state) {
@@ -315,7 +419,8 @@ public class SetupActivity extends Activity {
         @Override
         public void installServiceDATAName(int routeId, String name) {
             mLog.d("[installServiceDATAName][routeId:" + routeId + "][name: " + name + "]");
-            mHandler.sendEmptyMessage(ON_NEW_CHANNEL_FOUND);
+            mDtvEngine.getChannelManager().onServiceDiscovered(routeId);
+            mScanProgress.dataServiceFound();
         }
 
         @Override
@@ -326,7 +431,8 @@ public class SetupActivity extends Activity {
         @Override
         public void installServiceRADIOName(int routeId, String name) {
             mLog.d("[installServiceRADIOName][routeId:" + routeId + "][name: " + name + "]");
-            mHandler.sendEmptyMessage(ON_NEW_CHANNEL_FOUND);
+            mDtvEngine.getChannelManager().onServiceDiscovered(routeId);
+            mScanProgress.radioServiceFound();
         }
 
         @Override
@@ -337,8 +443,9 @@ public class SetupActivity extends Activity {
         @Override
         public void installServiceTVName(int routeId, String name) {
             mLog.d("[installServiceTVName][routeId:" + routeId + "][name: " + name + "]");
+            mDtvEngine.getChannelManager().onServiceDiscovered(routeId);
             if (!name.contains(ChannelManager.IP_CHANNEL_NAME) && !name.contains(ChannelManager.DVB_CAB_VOD_CHANNEL_NAME)) {
-                mHandler.sendEmptyMessage(ON_NEW_CHANNEL_FOUND);
+                mScanProgress.tvServiceFound();
             }
         }
 
@@ -355,6 +462,7 @@ public class SetupActivity extends Activity {
         @Override
         public void networkChanged(int networkId) {
             mLog.d("[networkChanged][network Id: " + networkId + "]");
+            mDtvEngine.getChannelManager().onNetworkChanged(networkId);
         }
 
         @Override
@@ -366,19 +474,18 @@ public class SetupActivity extends Activity {
         public void scanFinished(int routeId) {
             mLog.d("[scanFinished][routeId:" + routeId + "]");
             try {
-                mDtvEngine.getChannelManager().refreshChannelList();
+                if (!mDtvEngine.getChannelManager().scanFinished(routeId)) {
+                    // Scans on other frontends are still running, or scan job continues and
+                    // reports its end to job listener
+                    return;
+                }
+                mDtvEngine.getChannelManager().refreshChannelListAfterScan();
                 isAlreadyScanned = true;
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
-
-            //Use current selected frontend
-            synchronized (mScanState) {
-                if (mScanState == ScanState.SCANNING_MANUAL) {
-                    onClickScanAction(null);
-                    mLog.i("[scanFinished][Scan finshed for IP route]");
-                }
-            }
+            // Scan state is completed on UI thread with next progress delivery
+            mScanProgress.finish();
         }
 
         @Override
@@ -388,27 +495,31 @@ public class SetupActivity extends Activity {
 
         @Override
         public void scanProgressChanged(int routeId, int value) {
-            mLog.d("[scanProgressChanged][routeId:" + routeId + "]");
+            mScanProgress.setProgress(value);
         }
 
         @Override
         public void scanTunFrequency(int routeId, int frequency) {
             mLog.d("[scanTunFrequency][routeId:" + routeId + "][frequency: " + frequency + "]");
+            mScanProgress.setFrequency(frequency);
+            mDtvEngine.getChannelManager().onScanFrequency(routeId, frequency);
         }
 
         @Override
         public void signalBer(int routeId, int ber) {
-            mLog.d("[signalBer][routeId:" + routeId + "]");
+            mScanProgress.setSignalBer(ber);
         }
 
         @Override
         public void signalQuality(int routeId, int quality) {
-            mLog.d("[signalQuality][routeId:" + routeId + "][quality: " + quality + "]");
+            mScanProgress.setSignalQuality(quality);
+            mDtvEngine.getChannelManager().onSignalQuality(routeId, quality);
         }
 
         @Override
         public void signalStrength(int routeId, int strength) {
-            mLog.d("[signalStrength][routeId:" + routeId + "][strength: " + strength + "]");
+            mScanProgress.setSignalStrength(strength);
+            mDtvEngine.getChannelManager().onSignalStrength(routeId, strength);
         }
 
         @Override
@@ -429,6 +540,8 @@ public class SetupActivity extends Activity {
         @Override
         public void tunerLocked(int id, boolean locked){
             mLog.d("[tunerLocked]");
+            mDtvEngine.getChannelManager().onTunerLocked(id, locked);
+            mScanProgress.setLocked(locked);
         }
     };
 }